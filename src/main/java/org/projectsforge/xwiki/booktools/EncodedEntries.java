@@ -0,0 +1,531 @@
+package org.projectsforge.xwiki.booktools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.commons.lang3.StringUtils;
+import org.projectsforge.xwiki.booktools.cache.CachedEntry;
+import org.projectsforge.xwiki.booktools.service.BookToolsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.SpaceReference;
+
+import de.undercouch.citeproc.csl.CSLItemData;
+
+/**
+ * The encoded entries of an index. The entries are stored as a versioned text
+ * value : a header (<tt>BTE2:</tt>) followed by the Base64 form of a deflated
+ * payload made of the number of entries, the offset of each entry and the
+ * entries themselves (the key, the reference and the version of the entry
+ * document, each string being prefixed by its length). The index does not hold
+ * the CSL item data : they are taken from the shared entry cache when an entry
+ * is accessed, so that an entry cited by several books is decoded once.
+ * <p>
+ * The previous encodings (<tt>BTE1:</tt> holding the JSON form of the CSL item
+ * data and the legacy concatenated JSON objects) are still decoded, they are
+ * replaced by the current encoding on the next rebuild of the index.
+ * <p>
+ * The keys of an index are encoded the same way with the <tt>BTK1:</tt> header
+ * (the legacy value is a JSON list).
+ */
+public class EncodedEntries {
+
+  /** The header of the current entries encoding. */
+  public static final String ENTRIES_HEADER = "BTE2:";
+
+  /** The header of the entries encoding holding the JSON form of the entries. */
+  private static final String ENTRIES_HEADER_V1 = "BTE1:";
+
+  /** The header of the current keys encoding. */
+  public static final String KEYS_HEADER = "BTK1:";
+
+  /** The logger. */
+  private static final Logger logger = LoggerFactory.getLogger(EncodedEntries.class);
+
+  /**
+   * Decode entries.
+   *
+   * @param service
+   *          the service
+   * @param value
+   *          the stored value (current or previous encoding)
+   * @return the entries
+   */
+  public static EncodedEntries decode(BookToolsService service, String value) {
+    if (StringUtils.isBlank(value)) {
+      return new EncodedEntries(service, Collections.emptyList());
+    }
+    if (!value.startsWith(ENTRIES_HEADER) && !value.startsWith(ENTRIES_HEADER_V1)) {
+      // legacy encoding : parse everything now
+      return new EncodedEntries(service, Utils.deserializeCSLItemDatas(value));
+    }
+    try {
+      boolean withReferences = value.startsWith(ENTRIES_HEADER);
+      String header = withReferences ? ENTRIES_HEADER : ENTRIES_HEADER_V1;
+      ByteBuffer buffer = ByteBuffer.wrap(inflate(value.substring(header.length())));
+      int count = buffer.getInt();
+      int start = Integer.BYTES * (count + 1);
+      EncodedEntries entries = new EncodedEntries(service, withReferences ? null : buffer.array());
+      for (int i = 0; i < count; ++i) {
+        buffer.position(start + buffer.getInt(Integer.BYTES * (i + 1)));
+        String key = readString(buffer);
+        if (withReferences) {
+          entries.add(key, readReference(buffer), readString(buffer));
+        } else {
+          // the JSON form is only read when the entry is accessed
+          entries.add(key, buffer.position());
+        }
+      }
+      return entries;
+    } catch (DataFormatException | RuntimeException ex) {
+      service.addError(Error.JSON_DECODING, value);
+      logger.warn("Failed decoding entries", ex);
+      return new EncodedEntries(service, Collections.emptyList());
+    }
+  }
+
+  /**
+   * Decode keys.
+   *
+   * @param service
+   *          the service
+   * @param value
+   *          the stored value (current or legacy encoding)
+   * @return the keys
+   */
+  public static List<String> decodeKeys(BookToolsService service, String value) {
+    if (StringUtils.isBlank(value) || !value.startsWith(KEYS_HEADER)) {
+      return Utils.deserializeKeys(service, value);
+    }
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(inflate(value.substring(KEYS_HEADER.length())));
+      int count = buffer.getInt();
+      List<String> keys = new ArrayList<>(count);
+      for (int i = 0; i < count; ++i) {
+        keys.add(readString(buffer));
+      }
+      return keys;
+    } catch (DataFormatException | RuntimeException ex) {
+      service.addError(Error.JSON_DECODING, value);
+      logger.warn("Failed decoding keys", ex);
+      return Collections.emptyList();
+    }
+  }
+
+  /**
+   * Encode entries.
+   *
+   * @param keys
+   *          the keys
+   * @param references
+   *          the references of the entry documents
+   * @param versions
+   *          the versions of the entry documents
+   * @return the encoded value
+   */
+  public static String encode(List<String> keys, List<DocumentReference> references, List<String> versions) {
+    if (keys.isEmpty()) {
+      return "";
+    }
+    try {
+      ByteArrayOutputStream records = new ByteArrayOutputStream();
+      DataOutputStream recordsOutput = new DataOutputStream(records);
+      int[] offsets = new int[keys.size()];
+      for (int i = 0; i < keys.size(); ++i) {
+        offsets[i] = recordsOutput.size();
+        writeString(recordsOutput, keys.get(i));
+        writeReference(recordsOutput, references.get(i));
+        writeString(recordsOutput, versions.get(i));
+      }
+
+      ByteArrayOutputStream payload = new ByteArrayOutputStream();
+      DataOutputStream output = new DataOutputStream(payload);
+      output.writeInt(keys.size());
+      for (int offset : offsets) {
+        output.writeInt(offset);
+      }
+      records.writeTo(output);
+      output.flush();
+      return ENTRIES_HEADER + deflate(payload.toByteArray());
+    } catch (IOException ex) {
+      // can not occur with a memory stream
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /**
+   * Encode keys.
+   *
+   * @param keys
+   *          the keys
+   * @return the encoded value
+   */
+  public static String encodeKeys(List<String> keys) {
+    if (keys.isEmpty()) {
+      return "";
+    }
+    try {
+      ByteArrayOutputStream payload = new ByteArrayOutputStream();
+      DataOutputStream output = new DataOutputStream(payload);
+      output.writeInt(keys.size());
+      for (String key : keys) {
+        writeString(output, key);
+      }
+      output.flush();
+      return KEYS_HEADER + deflate(payload.toByteArray());
+    } catch (IOException ex) {
+      // can not occur with a memory stream
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /**
+   * Deflate and convert to Base64.
+   *
+   * @param data
+   *          the data
+   * @return the Base64 form of the deflated data
+   */
+  private static String deflate(byte[] data) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(data);
+      deflater.finish();
+      ByteArrayOutputStream output = new ByteArrayOutputStream(data.length / 2 + 16);
+      byte[] chunk = new byte[8192];
+      while (!deflater.finished()) {
+        output.write(chunk, 0, deflater.deflate(chunk));
+      }
+      return Base64.getEncoder().encodeToString(output.toByteArray());
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Convert from Base64 and inflate.
+   *
+   * @param value
+   *          the Base64 form of the deflated data
+   * @return the data
+   * @throws DataFormatException
+   *           if the data are corrupted
+   */
+  private static byte[] inflate(String value) throws DataFormatException {
+    byte[] data = Base64.getDecoder().decode(value);
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(data);
+      ByteArrayOutputStream output = new ByteArrayOutputStream(data.length * 4);
+      byte[] chunk = new byte[8192];
+      while (!inflater.finished()) {
+        int length = inflater.inflate(chunk);
+        if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new DataFormatException("Truncated data");
+        }
+        output.write(chunk, 0, length);
+      }
+      return output.toByteArray();
+    } finally {
+      inflater.end();
+    }
+  }
+
+  /**
+   * Read a document reference (wiki, spaces and name).
+   *
+   * @param buffer
+   *          the buffer
+   * @return the document reference
+   */
+  private static DocumentReference readReference(ByteBuffer buffer) {
+    String wiki = readString(buffer);
+    int count = buffer.getInt();
+    List<String> spaces = new ArrayList<>(count);
+    for (int i = 0; i < count; ++i) {
+      spaces.add(readString(buffer));
+    }
+    return new DocumentReference(wiki, spaces, readString(buffer));
+  }
+
+  /**
+   * Read a string prefixed by its length.
+   *
+   * @param buffer
+   *          the buffer
+   * @return the string
+   */
+  private static String readString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+    buffer.position(buffer.position() + length);
+    return value;
+  }
+
+  /**
+   * Write a document reference (wiki, spaces and name).
+   *
+   * @param output
+   *          the output
+   * @param reference
+   *          the document reference
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  private static void writeReference(DataOutputStream output, DocumentReference reference) throws IOException {
+    writeString(output, reference.getWikiReference().getName());
+    List<SpaceReference> spaces = reference.getSpaceReferences();
+    output.writeInt(spaces.size());
+    for (SpaceReference space : spaces) {
+      writeString(output, space.getName());
+    }
+    writeString(output, reference.getName());
+  }
+
+  /**
+   * Write a string prefixed by its length.
+   *
+   * @param output
+   *          the output
+   * @param value
+   *          the string
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  private static void writeString(DataOutputStream output, String value) throws IOException {
+    byte[] bytes = StringUtils.defaultString(value).getBytes(StandardCharsets.UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  /** The decoded CSL item data (null if not decoded yet). */
+  private final List<CSLItemData> datas = new ArrayList<>();
+
+  /** The offset of the JSON form of each entry in the payload (previous encoding). */
+  private final List<Integer> jsonOffsets = new ArrayList<>();
+
+  /** The keys. */
+  private final List<String> keys = new ArrayList<>();
+
+  /** The payload holding the JSON forms (previous encoding). */
+  private final byte[] payload;
+
+  /** The position of each key. */
+  private final Map<String, Integer> positions = new HashMap<>();
+
+  /** The references of the entry documents (null if unknown). */
+  private final List<DocumentReference> references = new ArrayList<>();
+
+  /** The service. */
+  private final BookToolsService service;
+
+  /** The versions of the entry documents (null if unknown). */
+  private final List<String> versions = new ArrayList<>();
+
+  /**
+   * Instantiates entries from decoded CSL item data.
+   *
+   * @param service
+   *          the service
+   * @param entries
+   *          the CSL item data
+   */
+  private EncodedEntries(BookToolsService service, List<CSLItemData> entries) {
+    this(service, (byte[]) null);
+    for (CSLItemData data : entries) {
+      add(data.getId(), null, null);
+      datas.set(datas.size() - 1, data);
+    }
+  }
+
+  /**
+   * Instantiates empty entries.
+   *
+   * @param service
+   *          the service
+   * @param payload
+   *          the payload holding the JSON forms (previous encoding)
+   */
+  private EncodedEntries(BookToolsService service, byte[] payload) {
+    this.service = service;
+    this.payload = payload;
+  }
+
+  /**
+   * Adds an entry whose JSON form is held by the payload (previous encoding).
+   *
+   * @param key
+   *          the key
+   * @param jsonOffset
+   *          the offset of the JSON form in the payload
+   */
+  private void add(String key, int jsonOffset) {
+    add(key, null, null);
+    jsonOffsets.set(jsonOffsets.size() - 1, jsonOffset);
+  }
+
+  /**
+   * Adds an entry.
+   *
+   * @param key
+   *          the key
+   * @param reference
+   *          the reference of the entry document
+   * @param version
+   *          the version of the entry document
+   */
+  private void add(String key, DocumentReference reference, String version) {
+    positions.putIfAbsent(key, keys.size());
+    keys.add(key);
+    references.add(reference);
+    versions.add(version);
+    datas.add(null);
+    jsonOffsets.add(-1);
+  }
+
+  /**
+   * Checks if an entry exists.
+   *
+   * @param key
+   *          the key
+   * @return true, if the entry exists
+   */
+  public boolean contains(String key) {
+    return positions.containsKey(key);
+  }
+
+  /**
+   * Gets an entry (decoded on first access).
+   *
+   * @param position
+   *          the position
+   * @return the CSL item data or null if the entry document does not exist
+   *         anymore
+   */
+  public synchronized CSLItemData get(int position) {
+    CSLItemData data = datas.get(position);
+    if (data == null) {
+      if (references.get(position) != null) {
+        CachedEntry entry = service.getEntryCache().get(references.get(position), versions.get(position));
+        data = entry == null ? null : entry.getData();
+      } else if (jsonOffsets.get(position) != -1) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        buffer.position(jsonOffsets.get(position));
+        data = Utils.deserializeCSLItemData(service, readString(buffer));
+      }
+      datas.set(position, data);
+    }
+    return data;
+  }
+
+  /**
+   * Gets an entry (decoded on first access).
+   *
+   * @param key
+   *          the key
+   * @return the CSL item data or null if there is no entry for the key
+   */
+  public CSLItemData get(String key) {
+    Integer position = positions.get(key);
+    return position == null ? null : get(position);
+  }
+
+  /**
+   * Gets the keys of the entries in order.
+   *
+   * @return the keys
+   */
+  public List<String> getKeys() {
+    return Collections.unmodifiableList(keys);
+  }
+
+  /**
+   * Gets the reference of an entry document.
+   *
+   * @param key
+   *          the key
+   * @return the reference or null if it is unknown
+   */
+  public DocumentReference getReference(String key) {
+    Integer position = positions.get(key);
+    return position == null ? null : references.get(position);
+  }
+
+  /**
+   * Gets the version of an entry document when the index has been built.
+   *
+   * @param key
+   *          the key
+   * @return the version or null if it is unknown
+   */
+  public String getVersion(String key) {
+    Integer position = positions.get(key);
+    return position == null ? null : versions.get(position);
+  }
+
+  /**
+   * Checks if the entries are stored as references (current encoding).
+   *
+   * @return true, if the entries are stored as references
+   */
+  public boolean hasReferences() {
+    return !references.contains(null);
+  }
+
+  /**
+   * Gets the number of entries.
+   *
+   * @return the number of entries
+   */
+  public int size() {
+    return keys.size();
+  }
+
+  /**
+   * Decode all the entries. The entries missing from the shared cache are
+   * queried at once.
+   *
+   * @return the CSL item data in order (the entries whose document does not
+   *         exist anymore are skipped)
+   */
+  public synchronized List<CSLItemData> toList() {
+    Map<DocumentReference, String> missing = new HashMap<>();
+    for (int i = 0; i < keys.size(); ++i) {
+      if (datas.get(i) == null && references.get(i) != null) {
+        missing.put(references.get(i), versions.get(i));
+      }
+    }
+    Map<DocumentReference, CachedEntry> loaded = missing.isEmpty() ? Collections.emptyMap()
+        : service.getEntryCache().getAll(missing);
+
+    List<CSLItemData> results = new ArrayList<>(keys.size());
+    for (int i = 0; i < keys.size(); ++i) {
+      CSLItemData data = datas.get(i);
+      if (data == null && references.get(i) != null) {
+        CachedEntry entry = loaded.get(references.get(i));
+        data = entry == null ? null : entry.getData();
+        datas.set(i, data);
+      } else if (data == null) {
+        data = get(i);
+      }
+      if (data != null) {
+        results.add(data);
+      }
+    }
+    return results;
+  }
+
+}
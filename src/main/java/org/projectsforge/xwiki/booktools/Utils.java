@@ -38,6 +38,12 @@ public class Utils {
   /** The Constant logger. */
   private static final Logger logger = LoggerFactory.getLogger(Utils.class);
 
+  /**
+   * The JSON object mapper shared by the serializations (thread safe once
+   * configured).
+   */
+  public static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
   /** The Constant STRING_JSON_BUILDER_FACTORY. */
   private static final StringJsonBuilderFactory STRING_JSON_BUILDER_FACTORY = new StringJsonBuilderFactory();
 
@@ -192,7 +198,7 @@ public class Utils {
   public static List<String> deserializeKeys(BookToolsService service, String value) {
     if (StringUtils.isNotBlank(value)) {
       try {
-        return new ObjectMapper().readValue(value, List.class);
+        return OBJECT_MAPPER.readValue(value, List.class);
       } catch (IOException ex) {
         service.addError(Error.JSON_DECODING, value);
         logger.warn("Failed decoding keys (" + value + ")", ex);
@@ -253,7 +259,7 @@ public class Utils {
   public static String serializeKeys(BookToolsService service, List<String> keys) {
     try {
       if (!keys.isEmpty()) {
-        return new ObjectMapper().writeValueAsString(keys);
+        return OBJECT_MAPPER.writeValueAsString(keys);
       }
     } catch (JsonProcessingException ex) {
       service.addError(Error.JSON_ENCODING, keys);
@@ -0,0 +1,57 @@
+package org.projectsforge.xwiki.booktools.cache;
+
+import org.projectsforge.xwiki.booktools.mapping.IndexSnapshot;
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * The shared (cross-request) cache of the rendered bibliographies. A
+ * bibliography is identified by the generation of the index snapshot it is
+ * rendered from, the style and the locale : a rebuilt index gets a new
+ * generation so that its previous bibliographies are never used again (they
+ * are evicted).
+ */
+@Role
+public interface BibliographyCache {
+
+  /**
+   * Clear the cache.
+   */
+  void clear();
+
+  /**
+   * Gets a rendered bibliography.
+   *
+   * @param snapshot
+   *          the index snapshot
+   * @param style
+   *          the style
+   * @param locale
+   *          the locale
+   * @return the rendered bibliography or null if it is not cached
+   */
+  RenderedBibliography get(IndexSnapshot snapshot, String style, String locale);
+
+  /**
+   * Invalidate the bibliographies of an index.
+   *
+   * @param indexReference
+   *          the index document reference
+   */
+  void invalidate(DocumentReference indexReference);
+
+  /**
+   * Cache a rendered bibliography.
+   *
+   * @param snapshot
+   *          the index snapshot
+   * @param style
+   *          the style
+   * @param locale
+   *          the locale
+   * @param bibliography
+   *          the rendered bibliography
+   */
+  void put(IndexSnapshot snapshot, String style, String locale, RenderedBibliography bibliography);
+
+}
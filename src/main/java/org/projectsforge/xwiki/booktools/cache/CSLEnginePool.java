@@ -0,0 +1,67 @@
+package org.projectsforge.xwiki.booktools.cache;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+import org.xwiki.component.annotation.Role;
+
+import de.undercouch.citeproc.csl.CSLItemData;
+
+/**
+ * The pool of the initialized CSL engines, by style and locale. Creating an
+ * engine starts a script context, loads citeproc.js and parses the style and
+ * the locale : the engines are reused instead (they are reset between two
+ * uses). The idle engines are evicted when unused for a while.
+ */
+@Role
+public interface CSLEnginePool {
+
+  /**
+   * Borrow an engine. The engine must be closed once used.
+   *
+   * @param style
+   *          the style (name or XML)
+   * @param locale
+   *          the locale
+   * @param items
+   *          the items of the engine
+   * @return the engine
+   * @throws IOException
+   *           Signals that the engine can not be created (e.g. unknown style).
+   */
+  PooledCSL borrow(String style, String locale, Collection<CSLItemData> items) throws IOException;
+
+  /**
+   * Discard all the idle engines.
+   */
+  void clear();
+
+  /**
+   * Gets the pool statistics : the number of created engines, the number of
+   * borrowings and the number of idle engines.
+   *
+   * @return the statistics
+   */
+  Map<String, Long> getStatistics();
+
+  /**
+   * Release a borrowed engine : it is reset and returned to the pool.
+   *
+   * @param engine
+   *          the engine
+   */
+  void release(PooledCSL engine);
+
+  /**
+   * Create an engine in background if no engine is idle for a style and a
+   * locale, so that the first rendering does not wait for the engine creation.
+   *
+   * @param style
+   *          the style (name or XML)
+   * @param locale
+   *          the locale
+   */
+  void warmUp(String style, String locale);
+
+}
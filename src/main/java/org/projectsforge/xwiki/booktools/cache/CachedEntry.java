@@ -0,0 +1,57 @@
+package org.projectsforge.xwiki.booktools.cache;
+
+import de.undercouch.citeproc.csl.CSLItemData;
+
+/**
+ * A decoded entry shared through the entry cache with the version of the
+ * document it has been decoded from.
+ */
+public class CachedEntry {
+
+  /** The CSL item data. */
+  private final CSLItemData data;
+
+  /** The document version. */
+  private final String version;
+
+  /**
+   * Instantiates a new cached entry.
+   *
+   * @param version
+   *          the document version
+   * @param data
+   *          the CSL item data
+   */
+  public CachedEntry(String version, CSLItemData data) {
+    this.version = version;
+    this.data = data;
+  }
+
+  /**
+   * Gets the CSL item data.
+   *
+   * @return the CSL item data
+   */
+  public CSLItemData getData() {
+    return data;
+  }
+
+  /**
+   * Gets the document version.
+   *
+   * @return the document version
+   */
+  public String getVersion() {
+    return version;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return "CachedEntry [id=" + data.getId() + ", version=" + version + "]";
+  }
+}
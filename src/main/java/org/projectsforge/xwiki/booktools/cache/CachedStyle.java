@@ -0,0 +1,42 @@
+package org.projectsforge.xwiki.booktools.cache;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A bibliography style resolved from the configuration of a wiki and shared
+ * through the style registry.
+ */
+public class CachedStyle {
+
+  /** The style (name or XML). */
+  private final String text;
+
+  /**
+   * Instantiates a new cached style.
+   *
+   * @param text
+   *          the style (name or XML)
+   */
+  public CachedStyle(String text) {
+    this.text = text;
+  }
+
+  /**
+   * Gets the style (name or XML).
+   *
+   * @return the style
+   */
+  public String getText() {
+    return text;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return "CachedStyle [text=" + StringUtils.abbreviate(text, 64) + "]";
+  }
+}
@@ -0,0 +1,62 @@
+package org.projectsforge.xwiki.booktools.cache;
+
+import java.util.List;
+
+import org.projectsforge.xwiki.booktools.mapping.IndexSnapshot;
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * The shared (cross-request) cache of the rendered citations. A citation is
+ * identified by the generation of the index snapshot it is rendered from, the
+ * style, the locale and its normalized keys and locators : the citations of a
+ * generation are numbered like the bibliography of this generation.
+ */
+@Role
+public interface CitationCache {
+
+  /**
+   * Clear the cache.
+   */
+  void clear();
+
+  /**
+   * Gets the texts of a rendered citation.
+   *
+   * @param snapshot
+   *          the index snapshot
+   * @param style
+   *          the style
+   * @param locale
+   *          the locale
+   * @param citation
+   *          the normalized keys and locators of the citation
+   * @return the texts or null if the citation is not cached
+   */
+  List<String> get(IndexSnapshot snapshot, String style, String locale, String citation);
+
+  /**
+   * Invalidate the citations of an index.
+   *
+   * @param indexReference
+   *          the index document reference
+   */
+  void invalidate(DocumentReference indexReference);
+
+  /**
+   * Cache the texts of a rendered citation.
+   *
+   * @param snapshot
+   *          the index snapshot
+   * @param style
+   *          the style
+   * @param locale
+   *          the locale
+   * @param citation
+   *          the normalized keys and locators of the citation
+   * @param texts
+   *          the texts
+   */
+  void put(IndexSnapshot snapshot, String style, String locale, String citation, List<String> texts);
+
+}
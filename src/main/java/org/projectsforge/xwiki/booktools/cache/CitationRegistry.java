@@ -0,0 +1,86 @@
+package org.projectsforge.xwiki.booktools.cache;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.WikiReference;
+
+/**
+ * The reverse map of the citations : the indexes and the pages citing an entry
+ * key, by wiki. It is built from the keys persisted in the index and local
+ * index objects with a query per object class the first time a wiki is used
+ * and then maintained when an index or a local index is saved, so that the
+ * documents depending on an entry are found without scanning every index.
+ */
+@Role
+public interface CitationRegistry {
+
+  /**
+   * Clear the registry (it will be built again on demand).
+   */
+  void clear();
+
+  /**
+   * Gets the indexes citing an entry key on all the wikis.
+   *
+   * @param key
+   *          the entry key
+   * @return the index documents references
+   */
+  Set<DocumentReference> getCitingIndexes(String key);
+
+  /**
+   * Gets the pages citing an entry key on a wiki, ordered by reference.
+   *
+   * @param wikiReference
+   *          the wiki reference
+   * @param key
+   *          the entry key
+   * @param offset
+   *          the index of the first page to return
+   * @param limit
+   *          the maximum number of pages to return (negative for no limit)
+   * @return the page references
+   */
+  List<DocumentReference> getCitingPages(WikiReference wikiReference, String key, int offset, int limit);
+
+  /**
+   * Removes a document which does not hold an index anymore.
+   *
+   * @param indexReference
+   *          the index document reference
+   */
+  void remove(DocumentReference indexReference);
+
+  /**
+   * Removes a document which does not hold a local index anymore.
+   *
+   * @param pageReference
+   *          the page reference
+   */
+  void removePage(DocumentReference pageReference);
+
+  /**
+   * Sets the keys cited by an index.
+   *
+   * @param indexReference
+   *          the index document reference
+   * @param keys
+   *          the keys
+   */
+  void update(DocumentReference indexReference, Collection<String> keys);
+
+  /**
+   * Sets the keys cited by a page (the keys of its local index).
+   *
+   * @param pageReference
+   *          the page reference
+   * @param keys
+   *          the keys
+   */
+  void updatePage(DocumentReference pageReference, Collection<String> keys);
+
+}
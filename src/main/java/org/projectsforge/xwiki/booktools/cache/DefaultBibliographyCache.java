@@ -0,0 +1,76 @@
+package org.projectsforge.xwiki.booktools.cache;
+
+import javax.inject.Singleton;
+
+import org.projectsforge.xwiki.booktools.mapping.IndexSnapshot;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * The default implementation of the bibliography cache backed by a bounded
+ * cache.
+ */
+@Component
+@Singleton
+public class DefaultBibliographyCache implements BibliographyCache {
+
+  /** The maximum number of bibliographies in the cache. */
+  private static final int MAXIMUM_SIZE = 500;
+
+  /** The cache. */
+  private final Cache<RenderingKey, RenderedBibliography> cache = CacheBuilder.newBuilder()
+      .maximumSize(MAXIMUM_SIZE).build();
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.projectsforge.xwiki.booktools.cache.BibliographyCache#clear()
+   */
+  @Override
+  public void clear() {
+    cache.invalidateAll();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.BibliographyCache#get(org.
+   * projectsforge.xwiki.booktools.mapping.IndexSnapshot, java.lang.String,
+   * java.lang.String)
+   */
+  @Override
+  public RenderedBibliography get(IndexSnapshot snapshot, String style, String locale) {
+    return cache.getIfPresent(new RenderingKey(snapshot, style, locale, ""));
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.BibliographyCache#invalidate(org.
+   * xwiki.model.reference.DocumentReference)
+   */
+  @Override
+  public void invalidate(DocumentReference indexReference) {
+    cache.asMap().keySet().removeIf(key -> key.getIndexReference().equals(indexReference));
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.BibliographyCache#put(org.
+   * projectsforge.xwiki.booktools.mapping.IndexSnapshot, java.lang.String,
+   * java.lang.String,
+   * org.projectsforge.xwiki.booktools.cache.RenderedBibliography)
+   */
+  @Override
+  public void put(IndexSnapshot snapshot, String style, String locale, RenderedBibliography bibliography) {
+    cache.put(new RenderingKey(snapshot, style, locale, ""), bibliography);
+  }
+
+}
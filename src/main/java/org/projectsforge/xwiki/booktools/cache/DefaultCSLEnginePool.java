@@ -0,0 +1,300 @@
+package org.projectsforge.xwiki.booktools.cache;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import de.undercouch.citeproc.CSL;
+import de.undercouch.citeproc.csl.CSLItemData;
+
+/**
+ * The default implementation of the CSL engine pool. At most
+ * <tt>booktools.csl.maxIdleEngines</tt> (xwiki.properties) engines are kept
+ * idle by style and locale. The engines listed in <tt>booktools.csl.warmUp</tt>
+ * (comma separated <tt>style/locale</tt> pairs, none by default) are created
+ * in background on startup. The engines are keyed by the style as configured
+ * (a name or the XML) : a listed style only matches the renderings of the
+ * wikis configured with the same style name.
+ */
+@Component
+@Singleton
+public class DefaultCSLEnginePool implements CSLEnginePool, Initializable, Disposable {
+
+  /**
+   * The key of the engines : the style and the locale. The hash of the style is
+   * computed once.
+   */
+  private static final class EngineKey {
+
+    /** The hash. */
+    private final int hash;
+
+    /** The locale. */
+    private final String locale;
+
+    /** The style. */
+    private final String style;
+
+    /**
+     * Instantiates a new engine key.
+     *
+     * @param style
+     *          the style
+     * @param locale
+     *          the locale
+     */
+    EngineKey(String style, String locale) {
+      this.style = style;
+      this.locale = locale;
+      this.hash = 31 * style.hashCode() + locale.hashCode();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof EngineKey)) {
+        return false;
+      }
+      EngineKey other = (EngineKey) obj;
+      return hash == other.hash && locale.equals(other.locale) && style.equals(other.style);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /** The configuration key of the maximum number of idle engines by style and locale. */
+  private static final String CONFIGURATION_MAX_IDLE = "booktools.csl.maxIdleEngines";
+
+  /** The configuration key of the engines created on startup. */
+  private static final String CONFIGURATION_WARM_UP = "booktools.csl.warmUp";
+
+  /** The default maximum number of idle engines by style and locale. */
+  private static final int DEFAULT_MAX_IDLE = 4;
+
+  /** The default engines created on startup (none). */
+  private static final String DEFAULT_WARM_UP = "";
+
+  /** The duration after which the unused engines are evicted (in minutes). */
+  private static final long IDLE_TIMEOUT = 30;
+
+  /** The maximum number of styles and locales having idle engines. */
+  private static final int MAXIMUM_SIZE = 64;
+
+  /** The number of borrowings. */
+  private final AtomicLong borrowed = new AtomicLong();
+
+  /** The configuration. */
+  @Inject
+  @Named("xwikiproperties")
+  private ConfigurationSource configuration;
+
+  /** The number of created engines. */
+  private final AtomicLong created = new AtomicLong();
+
+  /** The executor creating the engines in background. */
+  private ExecutorService executor;
+
+  /** The idle engines by style and locale. */
+  private final Cache<EngineKey, Deque<PooledCSL>> idle = CacheBuilder.newBuilder().maximumSize(MAXIMUM_SIZE)
+      .expireAfterAccess(IDLE_TIMEOUT, TimeUnit.MINUTES).build();
+
+  /** The logger. */
+  @Inject
+  private Logger logger;
+
+  /** The maximum number of idle engines by style and locale. */
+  private int maxIdle;
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.CSLEnginePool#borrow(java.lang.
+   * String, java.lang.String, java.util.Collection)
+   */
+  @Override
+  public PooledCSL borrow(String style, String locale, Collection<CSLItemData> items) throws IOException {
+    EngineKey key = new EngineKey(style, locale);
+    PooledCSL engine = getIdle(key).pollFirst();
+    if (engine == null) {
+      engine = create(key);
+    }
+    engine.getItems().set(items);
+    borrowed.incrementAndGet();
+    return engine;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.projectsforge.xwiki.booktools.cache.CSLEnginePool#clear()
+   */
+  @Override
+  public void clear() {
+    idle.invalidateAll();
+  }
+
+  /**
+   * Create an engine.
+   *
+   * @param key
+   *          the key of the engine
+   * @return the engine
+   * @throws IOException
+   *           Signals that the engine can not be created.
+   */
+  private PooledCSL create(EngineKey key) throws IOException {
+    PooledCSL.Items items = new PooledCSL.Items();
+    PooledCSL engine = new PooledCSL(this, key, new CSL(items, key.style, key.locale), items);
+    created.incrementAndGet();
+    return engine;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.xwiki.component.phase.Disposable#dispose()
+   */
+  @Override
+  public void dispose() {
+    executor.shutdownNow();
+    idle.invalidateAll();
+  }
+
+  /**
+   * Gets the idle engines of a style and a locale.
+   *
+   * @param key
+   *          the key of the engines
+   * @return the idle engines
+   */
+  private Deque<PooledCSL> getIdle(EngineKey key) {
+    return idle.asMap().computeIfAbsent(key, k -> new ConcurrentLinkedDeque<>());
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.projectsforge.xwiki.booktools.cache.CSLEnginePool#getStatistics()
+   */
+  @Override
+  public Map<String, Long> getStatistics() {
+    long idleEngines = 0;
+    for (Deque<PooledCSL> engines : idle.asMap().values()) {
+      idleEngines += engines.size();
+    }
+    Map<String, Long> statistics = new LinkedHashMap<>();
+    statistics.put("created", created.get());
+    statistics.put("borrowed", borrowed.get());
+    statistics.put("idle", idleEngines);
+    return statistics;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.xwiki.component.phase.Initializable#initialize()
+   */
+  @Override
+  public void initialize() throws InitializationException {
+    maxIdle = Math.max(0, configuration.getProperty(CONFIGURATION_MAX_IDLE, DEFAULT_MAX_IDLE));
+    executor = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setNameFormat("booktools-csl-warmup-%d").setDaemon(true).build());
+    for (String value : StringUtils.split(configuration.getProperty(CONFIGURATION_WARM_UP, DEFAULT_WARM_UP), ',')) {
+      String style = StringUtils.trim(StringUtils.substringBefore(value, "/"));
+      String locale = StringUtils.trim(StringUtils.substringAfter(value, "/"));
+      if (StringUtils.isNoneBlank(style, locale)) {
+        warmUp(style, locale);
+      }
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.CSLEnginePool#release(org.
+   * projectsforge.xwiki.booktools.cache.PooledCSL)
+   */
+  @Override
+  public void release(PooledCSL engine) {
+    try {
+      // restore the initial state of the engine
+      CSL csl = engine.getCSL();
+      csl.reset();
+      csl.setConvertLinks(false);
+      csl.setOutputFormat("html");
+    } catch (RuntimeException ex) {
+      // the engine is discarded
+      logger.warn("An error occurred while resetting a CSL engine", ex);
+      return;
+    }
+    engine.getItems().set(Collections.emptyList());
+    Deque<PooledCSL> engines = getIdle((EngineKey) engine.getKey());
+    if (engines.size() < maxIdle) {
+      engines.offerFirst(engine);
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.CSLEnginePool#warmUp(java.lang.
+   * String, java.lang.String)
+   */
+  @Override
+  public void warmUp(String style, String locale) {
+    EngineKey key = new EngineKey(style, locale);
+    executor.execute(() -> {
+      try {
+        if (getIdle(key).isEmpty()) {
+          release(create(key));
+        }
+      } catch (IOException | RuntimeException ex) {
+        logger.warn("An error occurred while creating a CSL engine for style " + StringUtils.abbreviate(style, 64)
+            + " and locale " + locale, ex);
+      }
+    });
+  }
+
+}
@@ -0,0 +1,79 @@
+package org.projectsforge.xwiki.booktools.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Singleton;
+
+import org.projectsforge.xwiki.booktools.mapping.IndexSnapshot;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * The default implementation of the citation cache backed by a bounded cache.
+ */
+@Component
+@Singleton
+public class DefaultCitationCache implements CitationCache {
+
+  /** The maximum number of citations in the cache. */
+  private static final int MAXIMUM_SIZE = 20000;
+
+  /** The cache. */
+  private final Cache<RenderingKey, List<String>> cache = CacheBuilder.newBuilder().maximumSize(MAXIMUM_SIZE)
+      .build();
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.projectsforge.xwiki.booktools.cache.CitationCache#clear()
+   */
+  @Override
+  public void clear() {
+    cache.invalidateAll();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.CitationCache#get(org.projectsforge.
+   * xwiki.booktools.mapping.IndexSnapshot, java.lang.String, java.lang.String,
+   * java.lang.String)
+   */
+  @Override
+  public List<String> get(IndexSnapshot snapshot, String style, String locale, String citation) {
+    return cache.getIfPresent(new RenderingKey(snapshot, style, locale, citation));
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.CitationCache#invalidate(org.xwiki.
+   * model.reference.DocumentReference)
+   */
+  @Override
+  public void invalidate(DocumentReference indexReference) {
+    cache.asMap().keySet().removeIf(key -> key.getIndexReference().equals(indexReference));
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.CitationCache#put(org.projectsforge.
+   * xwiki.booktools.mapping.IndexSnapshot, java.lang.String, java.lang.String,
+   * java.lang.String, java.util.List)
+   */
+  @Override
+  public void put(IndexSnapshot snapshot, String style, String locale, String citation, List<String> texts) {
+    cache.put(new RenderingKey(snapshot, style, locale, citation),
+        Collections.unmodifiableList(new ArrayList<>(texts)));
+  }
+
+}
@@ -0,0 +1,342 @@
+package org.projectsforge.xwiki.booktools.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.projectsforge.xwiki.booktools.EncodedEntries;
+import org.projectsforge.xwiki.booktools.Utils;
+import org.projectsforge.xwiki.booktools.mapping.Index;
+import org.projectsforge.xwiki.booktools.mapping.LocalIndex;
+import org.projectsforge.xwiki.booktools.service.BookToolsService;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+import org.xwiki.wiki.manager.WikiManagerException;
+
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * The default implementation of the citation registry.
+ */
+@Component
+@Singleton
+public class DefaultCitationRegistry implements CitationRegistry {
+
+  /**
+   * A reverse map from the cited keys to the citing documents.
+   */
+  private static class ReverseMap {
+
+    /** The documents by cited key. */
+    private final Map<String, Set<DocumentReference>> documentsByKey = new HashMap<>();
+
+    /** The cited keys by document. */
+    private final Map<DocumentReference, Set<String>> keysByDocument = new HashMap<>();
+
+    /**
+     * Gets the documents citing a key.
+     *
+     * @param key
+     *          the key
+     * @return the documents references
+     */
+    synchronized Set<DocumentReference> get(String key) {
+      Set<DocumentReference> documents = documentsByKey.get(key);
+      return documents == null ? Collections.emptySet() : new HashSet<>(documents);
+    }
+
+    /**
+     * Sets the keys cited by a document (the previous keys are forgotten).
+     *
+     * @param reference
+     *          the document reference
+     * @param keys
+     *          the keys (empty to remove the document)
+     */
+    synchronized void set(DocumentReference reference, Collection<String> keys) {
+      Set<String> previousKeys = keysByDocument.remove(reference);
+      if (previousKeys != null) {
+        for (String key : previousKeys) {
+          Set<DocumentReference> documents = documentsByKey.get(key);
+          documents.remove(reference);
+          if (documents.isEmpty()) {
+            documentsByKey.remove(key);
+          }
+        }
+      }
+      if (!keys.isEmpty()) {
+        Set<String> trimmedKeys = new HashSet<>();
+        for (String key : keys) {
+          trimmedKeys.add(StringUtils.trim(key));
+        }
+        keysByDocument.put(reference, trimmedKeys);
+        for (String key : trimmedKeys) {
+          documentsByKey.computeIfAbsent(key, k -> new HashSet<>()).add(reference);
+        }
+      }
+    }
+  }
+
+  /**
+   * The citations of a wiki.
+   */
+  private static class WikiCitations {
+
+    /** The indexes citing the keys. */
+    private final ReverseMap indexes = new ReverseMap();
+
+    /** The pages citing the keys. */
+    private final ReverseMap pages = new ReverseMap();
+  }
+
+  /** The number of stripes of the load locks. */
+  private static final int LOAD_LOCK_STRIPES = 16;
+
+  /** The query reading the keys of the indexes. */
+  private static final String INDEX_KEYS_QUERY = String.format(
+      "select doc.fullName, idx.%s from Document doc, doc.object(%s) as idx", Index.FIELD_KEYS,
+      Index.CLASS_REFERENCE_AS_STRING);
+
+  /** The query reading the keys of the local indexes. */
+  private static final String LOCAL_INDEX_KEYS_QUERY = String.format(
+      "select doc.fullName, localindex.%s from Document doc, doc.object(%s) as localindex", LocalIndex.FIELD_KEYS,
+      LocalIndex.CLASS_REFERENCE_AS_STRING);
+
+  /** The document reference resolver. */
+  @Inject
+  private DocumentReferenceResolver<String> documentReferenceResolver;
+
+  /**
+   * The locks serializing the load of a wiki and the changes received
+   * meanwhile.
+   */
+  private final Striped<Lock> loadLocks = Striped.lazyWeakLock(LOAD_LOCK_STRIPES);
+
+  /** The logger. */
+  @Inject
+  private Logger logger;
+
+  /** The query manager. */
+  @Inject
+  private QueryManager queryManager;
+
+  /** The service (used to decode the keys). */
+  @Inject
+  private Provider<BookToolsService> serviceProvider;
+
+  /** The wiki descriptor manager. */
+  @Inject
+  private WikiDescriptorManager wikiDescriptorManager;
+
+  /** The citations by wiki. */
+  private final ConcurrentMap<WikiReference, WikiCitations> wikis = new ConcurrentHashMap<>();
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.projectsforge.xwiki.booktools.cache.CitationRegistry#clear()
+   */
+  @Override
+  public void clear() {
+    wikis.clear();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.CitationRegistry#getCitingIndexes(
+   * java.lang.String)
+   */
+  @Override
+  public Set<DocumentReference> getCitingIndexes(String key) {
+    Set<WikiReference> wikiReferences = new HashSet<>(wikis.keySet());
+    try {
+      for (String wikiId : wikiDescriptorManager.getAllIds()) {
+        wikiReferences.add(new WikiReference(wikiId));
+      }
+    } catch (WikiManagerException ex) {
+      logger.warn("An error occurred while listing the wikis", ex);
+    }
+
+    Set<DocumentReference> results = new HashSet<>();
+    String trimmedKey = StringUtils.trim(key);
+    for (WikiReference wikiReference : wikiReferences) {
+      WikiCitations citations = getWikiCitations(wikiReference);
+      if (citations != null) {
+        results.addAll(citations.indexes.get(trimmedKey));
+      }
+    }
+    return results;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.CitationRegistry#getCitingPages(org.
+   * xwiki.model.reference.WikiReference, java.lang.String, int, int)
+   */
+  @Override
+  public List<DocumentReference> getCitingPages(WikiReference wikiReference, String key, int offset, int limit) {
+    WikiCitations citations = getWikiCitations(wikiReference);
+    if (citations == null) {
+      return Collections.emptyList();
+    }
+    List<DocumentReference> pages = new ArrayList<>(citations.pages.get(StringUtils.trim(key)));
+    // a stable order for the pagination
+    pages.sort(Comparator.comparing(DocumentReference::toString));
+    int from = Math.min(Math.max(offset, 0), pages.size());
+    int to = limit < 0 ? pages.size() : Math.min(from + limit, pages.size());
+    return pages.subList(from, to);
+  }
+
+  /**
+   * Gets the citations of a wiki (they are loaded if needed).
+   *
+   * @param wikiReference
+   *          the wiki reference
+   * @return the citations or null if they can not be loaded
+   */
+  private WikiCitations getWikiCitations(WikiReference wikiReference) {
+    WikiCitations result = wikis.get(wikiReference);
+    if (result == null) {
+      Lock lock = loadLocks.get(wikiReference);
+      lock.lock();
+      try {
+        result = wikis.get(wikiReference);
+        if (result == null) {
+          result = load(wikiReference);
+          if (result != null) {
+            wikis.put(wikiReference, result);
+          }
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Load the citations of the indexes and of the pages of a wiki.
+   *
+   * @param wikiReference
+   *          the wiki reference
+   * @return the citations or null if an error occurred
+   */
+  private WikiCitations load(WikiReference wikiReference) {
+    try {
+      WikiCitations result = new WikiCitations();
+      for (Object[] row : queryManager.createQuery(INDEX_KEYS_QUERY, Query.XWQL).setWiki(wikiReference.getName())
+          .<Object[]> execute()) {
+        result.indexes.set(documentReferenceResolver.resolve((String) row[0], wikiReference),
+            EncodedEntries.decodeKeys(serviceProvider.get(), (String) row[1]));
+      }
+      for (Object[] row : queryManager.createQuery(LOCAL_INDEX_KEYS_QUERY, Query.XWQL)
+          .setWiki(wikiReference.getName()).<Object[]> execute()) {
+        result.pages.set(documentReferenceResolver.resolve((String) row[0], wikiReference),
+            Utils.deserializeKeys(serviceProvider.get(), (String) row[1]));
+      }
+      return result;
+    } catch (QueryException ex) {
+      logger.warn("An error occurred while loading the citations of wiki " + wikiReference, ex);
+      return null;
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.CitationRegistry#remove(org.xwiki.
+   * model.reference.DocumentReference)
+   */
+  @Override
+  public void remove(DocumentReference indexReference) {
+    update(indexReference, Collections.emptyList());
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.CitationRegistry#removePage(org.
+   * xwiki.model.reference.DocumentReference)
+   */
+  @Override
+  public void removePage(DocumentReference pageReference) {
+    updatePage(pageReference, Collections.emptyList());
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.CitationRegistry#update(org.xwiki.
+   * model.reference.DocumentReference, java.util.Collection)
+   */
+  @Override
+  public void update(DocumentReference indexReference, Collection<String> keys) {
+    updateLoaded(indexReference.getWikiReference(), citations -> citations.indexes.set(indexReference, keys));
+  }
+
+  /**
+   * Apply a change to the citations of a wiki if they are loaded. The change
+   * waits for a running load of the wiki (it would be lost otherwise).
+   *
+   * @param wikiReference
+   *          the wiki reference
+   * @param change
+   *          the change
+   */
+  private void updateLoaded(WikiReference wikiReference, Consumer<WikiCitations> change) {
+    Lock lock = loadLocks.get(wikiReference);
+    lock.lock();
+    try {
+      WikiCitations citations = wikis.get(wikiReference);
+      // nothing to do if the wiki is not loaded yet, the keys will be read when
+      // the wiki is loaded
+      if (citations != null) {
+        change.accept(citations);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.CitationRegistry#updatePage(org.
+   * xwiki.model.reference.DocumentReference, java.util.Collection)
+   */
+  @Override
+  public void updatePage(DocumentReference pageReference, Collection<String> keys) {
+    updateLoaded(pageReference.getWikiReference(), citations -> citations.pages.set(pageReference, keys));
+  }
+
+}
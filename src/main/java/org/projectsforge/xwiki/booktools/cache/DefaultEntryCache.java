@@ -0,0 +1,214 @@
+package org.projectsforge.xwiki.booktools.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.projectsforge.xwiki.booktools.Utils;
+import org.projectsforge.xwiki.booktools.mapping.Entry;
+import org.projectsforge.xwiki.booktools.service.BookToolsService;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * The default implementation of the entry cache backed by a bounded cache.
+ */
+@Component
+@Singleton
+public class DefaultEntryCache implements EntryCache {
+
+  /** The query reading the entries. */
+  private static final String ENTRIES_QUERY = String.format(
+      "select doc.fullName, doc.version, entry.%s from Document doc, doc.object(%s) as entry "
+          + "where doc.fullName in (:names)",
+      Entry.FIELD_CSL_ITEM_DATA, Entry.CLASS_REFERENCE_AS_STRING);
+
+  /** The maximum number of entries in the cache. */
+  private static final int MAXIMUM_SIZE = 10000;
+
+  /** The maximum number of documents bound to a single query. */
+  private static final int QUERY_CHUNK_SIZE = 500;
+
+  /** The cache. */
+  private final Cache<DocumentReference, CachedEntry> cache = CacheBuilder.newBuilder().maximumSize(MAXIMUM_SIZE)
+      .build();
+
+  /** The logger. */
+  @Inject
+  private Logger logger;
+
+  /** The query manager. */
+  @Inject
+  private QueryManager queryManager;
+
+  /** The service (used to report decoding errors). */
+  @Inject
+  private Provider<BookToolsService> serviceProvider;
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.projectsforge.xwiki.booktools.cache.EntryCache#clear()
+   */
+  @Override
+  public void clear() {
+    cache.invalidateAll();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.EntryCache#get(org.xwiki.model.
+   * reference.DocumentReference, java.lang.String)
+   */
+  @Override
+  public CachedEntry get(DocumentReference reference, String version) {
+    return getAll(Collections.singletonMap(reference, version)).get(reference);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.EntryCache#getAll(java.util.
+   * Collection)
+   */
+  @Override
+  public Map<DocumentReference, CachedEntry> getAll(Collection<DocumentReference> references) {
+    Map<DocumentReference, String> versions = new HashMap<>();
+    for (DocumentReference reference : references) {
+      versions.put(reference, null);
+    }
+    return getAll(versions);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.EntryCache#getAll(java.util.Map)
+   */
+  @Override
+  public Map<DocumentReference, CachedEntry> getAll(Map<DocumentReference, String> versions) {
+    Map<DocumentReference, CachedEntry> results = new HashMap<>();
+    List<DocumentReference> missing = new ArrayList<>();
+    for (Map.Entry<DocumentReference, String> version : versions.entrySet()) {
+      CachedEntry entry = cache.getIfPresent(version.getKey());
+      if (entry != null && !isOlder(entry.getVersion(), version.getValue())) {
+        results.put(version.getKey(), entry);
+      } else {
+        missing.add(version.getKey());
+      }
+    }
+    if (!missing.isEmpty()) {
+      results.putAll(load(missing));
+    }
+    return results;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.EntryCache#invalidate(org.xwiki.
+   * model.reference.DocumentReference)
+   */
+  @Override
+  public void invalidate(DocumentReference reference) {
+    cache.invalidate(reference);
+  }
+
+  /**
+   * Checks if a document version is older than another one. The versions are
+   * compared numerically (major and minor), the entries are then still accepted
+   * after an update of the entry document which is not reflected in the index
+   * yet.
+   *
+   * @param version
+   *          the version
+   * @param requested
+   *          the requested version (null to accept any version)
+   * @return true, if the version is older than the requested one
+   */
+  static boolean isOlder(String version, String requested) {
+    if (requested == null || requested.equals(version)) {
+      return false;
+    }
+    if (version == null) {
+      return true;
+    }
+    String[] parts = version.split("\\.");
+    String[] requestedParts = requested.split("\\.");
+    try {
+      for (int i = 0; i < Math.max(parts.length, requestedParts.length); ++i) {
+        int part = i < parts.length ? Integer.parseInt(parts[i]) : 0;
+        int requestedPart = i < requestedParts.length ? Integer.parseInt(requestedParts[i]) : 0;
+        if (part != requestedPart) {
+          return part < requestedPart;
+        }
+      }
+      return false;
+    } catch (NumberFormatException ex) {
+      // unknown format : only the requested version is accepted
+      return true;
+    }
+  }
+
+  /**
+   * Query entries (one query per wiki and per chunk) and cache them.
+   *
+   * @param references
+   *          the entry document references
+   * @return the entries by reference
+   */
+  private Map<DocumentReference, CachedEntry> load(Collection<DocumentReference> references) {
+    Map<WikiReference, Map<String, DocumentReference>> byWiki = new LinkedHashMap<>();
+    for (DocumentReference reference : references) {
+      byWiki.computeIfAbsent(reference.getWikiReference(), k -> new LinkedHashMap<>())
+          .put(Utils.LOCAL_REFERENCE_SERIALIZER.serialize(reference), reference);
+    }
+
+    Map<DocumentReference, CachedEntry> results = new HashMap<>();
+    for (Map.Entry<WikiReference, Map<String, DocumentReference>> wiki : byWiki.entrySet()) {
+      List<String> names = new ArrayList<>(wiki.getValue().keySet());
+      try {
+        for (int i = 0; i < names.size(); i += QUERY_CHUNK_SIZE) {
+          List<String> chunk = new ArrayList<>(names.subList(i, Math.min(i + QUERY_CHUNK_SIZE, names.size())));
+          List<Object[]> rows = queryManager.createQuery(ENTRIES_QUERY, Query.XWQL).bindValue("names", chunk)
+              .setWiki(StringUtils.defaultIfBlank(wiki.getKey().getName(), null)).execute();
+          for (Object[] row : rows) {
+            DocumentReference reference = wiki.getValue().get(row[0]);
+            if (reference != null) {
+              CachedEntry entry = new CachedEntry((String) row[1],
+                  Utils.deserializeCSLItemData(serviceProvider.get(), (String) row[2]));
+              cache.put(reference, entry);
+              results.put(reference, entry);
+            }
+          }
+        }
+      } catch (QueryException ex) {
+        logger.warn("An error occurred while querying the entries " + names, ex);
+      }
+    }
+    return results;
+  }
+
+}
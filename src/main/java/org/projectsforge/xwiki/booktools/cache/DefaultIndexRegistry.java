@@ -0,0 +1,185 @@
+package org.projectsforge.xwiki.booktools.cache;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.projectsforge.xwiki.booktools.mapping.DocumentWalker;
+import org.projectsforge.xwiki.booktools.mapping.Index;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * The default implementation of the index registry.
+ */
+@Component
+@Singleton
+public class DefaultIndexRegistry implements IndexRegistry {
+
+  /** The number of stripes of the load locks. */
+  private static final int LOAD_LOCK_STRIPES = 16;
+
+  /** The document reference resolver. */
+  @Inject
+  private DocumentReferenceResolver<String> documentReferenceResolver;
+
+  /** The index documents by wiki. */
+  private final ConcurrentMap<WikiReference, Set<DocumentReference>> indexes = new ConcurrentHashMap<>();
+
+  /**
+   * The locks serializing the load of a wiki and the changes received
+   * meanwhile.
+   */
+  private final Striped<Lock> loadLocks = Striped.lazyWeakLock(LOAD_LOCK_STRIPES);
+
+  /** The logger. */
+  @Inject
+  private Logger logger;
+
+  /** The query manager. */
+  @Inject
+  private QueryManager queryManager;
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.IndexRegistry#add(org.xwiki.model.
+   * reference.DocumentReference)
+   */
+  @Override
+  public void add(DocumentReference reference) {
+    // the change waits for a running load of the wiki (it would be lost
+    // otherwise)
+    Lock lock = loadLocks.get(reference.getWikiReference());
+    lock.lock();
+    try {
+      Set<DocumentReference> wikiIndexes = indexes.get(reference.getWikiReference());
+      // nothing to do if the wiki is not loaded yet, the document will be found
+      // when the wiki is loaded
+      if (wikiIndexes != null) {
+        wikiIndexes.add(reference);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.projectsforge.xwiki.booktools.cache.IndexRegistry#clear()
+   */
+  @Override
+  public void clear() {
+    indexes.clear();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.IndexRegistry#getIndex(org.xwiki.
+   * model.reference.DocumentReference)
+   */
+  @Override
+  public DocumentReference getIndex(DocumentReference reference) {
+    Set<DocumentReference> wikiIndexes = getIndexes(reference.getWikiReference());
+    if (wikiIndexes == null || wikiIndexes.isEmpty()) {
+      return null;
+    }
+    for (DocumentReference current = reference; current != null; current = DocumentWalker
+        .getParentReference(current)) {
+      if (wikiIndexes.contains(current)) {
+        return current;
+      }
+    }
+    return null;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.IndexRegistry#getIndexes(org.xwiki.
+   * model.reference.WikiReference)
+   */
+  @Override
+  public Set<DocumentReference> getIndexes(WikiReference wikiReference) {
+    Set<DocumentReference> result = indexes.get(wikiReference);
+    if (result == null) {
+      Lock lock = loadLocks.get(wikiReference);
+      lock.lock();
+      try {
+        result = indexes.get(wikiReference);
+        if (result == null) {
+          result = load(wikiReference);
+          if (result != null) {
+            indexes.put(wikiReference, result);
+          }
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+    return result == null ? null : Collections.unmodifiableSet(result);
+  }
+
+  /**
+   * Load the index documents of a wiki.
+   *
+   * @param wikiReference
+   *          the wiki reference
+   * @return the index documents or null if an error occurred
+   */
+  private Set<DocumentReference> load(WikiReference wikiReference) {
+    try {
+      Set<DocumentReference> result = ConcurrentHashMap.newKeySet();
+      for (String fullName : queryManager
+          .createQuery(String.format("select distinct doc.fullName from Document doc, doc.object(%s) as idx",
+              Index.CLASS_REFERENCE_AS_STRING), Query.XWQL)
+          .setWiki(wikiReference.getName()).<String> execute()) {
+        result.add(documentReferenceResolver.resolve(fullName, wikiReference));
+      }
+      return result;
+    } catch (QueryException ex) {
+      logger.warn("An error occurred while loading the indexes of wiki " + wikiReference, ex);
+      return null;
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.IndexRegistry#remove(org.xwiki.
+   * model.reference.DocumentReference)
+   */
+  @Override
+  public void remove(DocumentReference reference) {
+    Lock lock = loadLocks.get(reference.getWikiReference());
+    lock.lock();
+    try {
+      Set<DocumentReference> wikiIndexes = indexes.get(reference.getWikiReference());
+      if (wikiIndexes != null) {
+        wikiIndexes.remove(reference);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+}
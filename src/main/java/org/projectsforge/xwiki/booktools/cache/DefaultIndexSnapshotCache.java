@@ -0,0 +1,86 @@
+package org.projectsforge.xwiki.booktools.cache;
+
+import javax.inject.Singleton;
+
+import org.projectsforge.xwiki.booktools.mapping.IndexSnapshot;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * The default implementation of the index snapshot cache backed by a bounded
+ * cache.
+ */
+@Component
+@Singleton
+public class DefaultIndexSnapshotCache implements IndexSnapshotCache {
+
+  /** The maximum number of snapshots in the cache. */
+  private static final int MAXIMUM_SIZE = 1000;
+
+  /** The cache. */
+  private final Cache<DocumentReference, IndexSnapshot> cache = CacheBuilder.newBuilder().maximumSize(MAXIMUM_SIZE)
+      .build();
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.projectsforge.xwiki.booktools.cache.IndexSnapshotCache#clear()
+   */
+  @Override
+  public void clear() {
+    cache.invalidateAll();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.IndexSnapshotCache#get(org.xwiki.
+   * model.reference.DocumentReference)
+   */
+  @Override
+  public IndexSnapshot get(DocumentReference reference) {
+    return cache.getIfPresent(reference);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.IndexSnapshotCache#invalidate(org.
+   * xwiki.model.reference.DocumentReference)
+   */
+  @Override
+  public void invalidate(DocumentReference reference) {
+    cache.invalidate(reference);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.IndexSnapshotCache#publish(org.
+   * projectsforge.xwiki.booktools.mapping.IndexSnapshot)
+   */
+  @Override
+  public void publish(IndexSnapshot snapshot) {
+    cache.put(snapshot.getIndexReference(), snapshot);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.IndexSnapshotCache#publishIfAbsent(
+   * org.projectsforge.xwiki.booktools.mapping.IndexSnapshot)
+   */
+  @Override
+  public IndexSnapshot publishIfAbsent(IndexSnapshot snapshot) {
+    IndexSnapshot previous = cache.asMap().putIfAbsent(snapshot.getIndexReference(), snapshot);
+    return previous == null ? snapshot : previous;
+  }
+
+}
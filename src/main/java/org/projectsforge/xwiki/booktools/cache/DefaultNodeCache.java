@@ -0,0 +1,251 @@
+package org.projectsforge.xwiki.booktools.cache;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Singleton;
+
+import org.projectsforge.xwiki.booktools.mapping.DocumentWalker;
+import org.projectsforge.xwiki.booktools.mapping.NavigationTable;
+import org.projectsforge.xwiki.booktools.mapping.NodeInfo;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * The default implementation of the node cache backed by a bounded cache.
+ */
+@Component
+@Singleton
+public class DefaultNodeCache implements NodeCache {
+
+  /**
+   * The data cached for a document.
+   */
+  private static class CachedNode {
+
+    /** The children (hidden documents excluded). */
+    private volatile List<DocumentReference> children;
+
+    /** The children (hidden documents included). */
+    private volatile List<DocumentReference> childrenWithHidden;
+
+    /** The index flag. */
+    private volatile Boolean index;
+
+    /** The lightweight description. */
+    private volatile NodeInfo info;
+
+    /** The order. */
+    private volatile Integer order;
+  }
+
+  /** The maximum number of documents in the cache. */
+  private static final int MAXIMUM_SIZE = 10000;
+
+  /** The maximum number of navigation tables in the cache. */
+  private static final int MAXIMUM_TABLES = 100;
+
+  /** The cache. */
+  private final Cache<DocumentReference, CachedNode> cache = CacheBuilder.newBuilder().maximumSize(MAXIMUM_SIZE)
+      .build();
+
+  /** The navigation tables. */
+  private final Cache<DocumentReference, NavigationTable> tables = CacheBuilder.newBuilder()
+      .maximumSize(MAXIMUM_TABLES).build();
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.projectsforge.xwiki.booktools.cache.NodeCache#clear()
+   */
+  @Override
+  public void clear() {
+    cache.invalidateAll();
+    tables.invalidateAll();
+  }
+
+  /**
+   * Gets the cached node, creating it if necessary.
+   *
+   * @param reference
+   *          the reference
+   * @return the cached node
+   */
+  private CachedNode get(DocumentReference reference) {
+    return cache.asMap().computeIfAbsent(reference, k -> new CachedNode());
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.NodeCache#getChildren(org.xwiki.
+   * model.reference.DocumentReference, boolean)
+   */
+  @Override
+  public List<DocumentReference> getChildren(DocumentReference reference, boolean includeHidden) {
+    CachedNode node = cache.getIfPresent(reference);
+    if (node == null) {
+      return null;
+    }
+    return includeHidden ? node.childrenWithHidden : node.children;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.NodeCache#getInfo(org.xwiki.model.
+   * reference.DocumentReference)
+   */
+  @Override
+  public NodeInfo getInfo(DocumentReference reference) {
+    CachedNode node = cache.getIfPresent(reference);
+    return node == null ? null : node.info;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.NodeCache#getNavigationTable(org.
+   * xwiki.model.reference.DocumentReference)
+   */
+  @Override
+  public NavigationTable getNavigationTable(DocumentReference root) {
+    return tables.getIfPresent(root);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.NodeCache#getOrder(org.xwiki.model.
+   * reference.DocumentReference)
+   */
+  @Override
+  public Integer getOrder(DocumentReference reference) {
+    CachedNode node = cache.getIfPresent(reference);
+    return node == null ? null : node.order;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.NodeCache#invalidate(org.xwiki.
+   * model.reference.DocumentReference)
+   */
+  @Override
+  public void invalidate(DocumentReference reference) {
+    cache.invalidate(reference);
+    // the parent holds the (sorted) list of children
+    DocumentReference parentReference = DocumentWalker.getParentReference(reference);
+    if (parentReference != null) {
+      cache.invalidate(parentReference);
+    }
+    for (NavigationTable table : tables.asMap().values()) {
+      table.invalidate(reference);
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.NodeCache#invalidateHierarchy(org.
+   * xwiki.model.reference.DocumentReference)
+   */
+  @Override
+  public void invalidateHierarchy(DocumentReference reference) {
+    invalidate(reference);
+    for (DocumentReference parentReference = DocumentWalker.getParentReference(
+        reference); parentReference != null; parentReference = DocumentWalker.getParentReference(parentReference)) {
+      cache.invalidate(parentReference);
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.NodeCache#isIndex(org.xwiki.model.
+   * reference.DocumentReference)
+   */
+  @Override
+  public Boolean isIndex(DocumentReference reference) {
+    CachedNode node = cache.getIfPresent(reference);
+    return node == null ? null : node.index;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.NodeCache#setChildren(org.xwiki.
+   * model.reference.DocumentReference, boolean, java.util.List)
+   */
+  @Override
+  public void setChildren(DocumentReference reference, boolean includeHidden, List<DocumentReference> children) {
+    List<DocumentReference> value = Collections.unmodifiableList(children);
+    if (includeHidden) {
+      get(reference).childrenWithHidden = value;
+    } else {
+      get(reference).children = value;
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.NodeCache#setIndex(org.xwiki.model.
+   * reference.DocumentReference, boolean)
+   */
+  @Override
+  public void setIndex(DocumentReference reference, boolean index) {
+    get(reference).index = index;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.NodeCache#setInfo(org.xwiki.model.
+   * reference.DocumentReference,
+   * org.projectsforge.xwiki.booktools.mapping.NodeInfo)
+   */
+  @Override
+  public void setInfo(DocumentReference reference, NodeInfo info) {
+    get(reference).info = info;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.NodeCache#setNavigationTable(org.
+   * xwiki.model.reference.DocumentReference,
+   * org.projectsforge.xwiki.booktools.mapping.NavigationTable)
+   */
+  @Override
+  public void setNavigationTable(DocumentReference root, NavigationTable table) {
+    tables.put(root, table);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.NodeCache#setOrder(org.xwiki.model.
+   * reference.DocumentReference, java.lang.Integer)
+   */
+  @Override
+  public void setOrder(DocumentReference reference, Integer order) {
+    get(reference).order = order;
+  }
+
+}
@@ -0,0 +1,76 @@
+package org.projectsforge.xwiki.booktools.cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.projectsforge.xwiki.booktools.service.BookToolsService;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.WikiReference;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * The default implementation of the style registry. The styles of a wiki are
+ * dropped all together when the wiki is invalidated : a resolution running at
+ * the same time only fills the dropped styles.
+ */
+@Component
+@Singleton
+public class DefaultStyleRegistry implements StyleRegistry {
+
+  /** The styles by field name, by wiki. */
+  private final Cache<WikiReference, Map<String, CachedStyle>> cache = CacheBuilder.newBuilder().build();
+
+  /** The service (used to read the configuration). */
+  @Inject
+  private Provider<BookToolsService> serviceProvider;
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.projectsforge.xwiki.booktools.cache.StyleRegistry#clear()
+   */
+  @Override
+  public void clear() {
+    cache.invalidateAll();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.StyleRegistry#getStyle(org.xwiki.
+   * model.reference.WikiReference, java.lang.String)
+   */
+  @Override
+  public CachedStyle getStyle(WikiReference wikiReference, String fieldName) {
+    Map<String, CachedStyle> styles;
+    try {
+      styles = cache.get(wikiReference, ConcurrentHashMap::new);
+    } catch (ExecutionException ex) {
+      // can not happen : the map creation does not throw
+      throw new IllegalStateException(ex);
+    }
+    return styles.computeIfAbsent(fieldName, k -> new CachedStyle(
+        serviceProvider.get().getDefaultConfiguration(wikiReference).getBibliographyStyle(fieldName)));
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.cache.StyleRegistry#invalidate(org.xwiki.
+   * model.reference.WikiReference)
+   */
+  @Override
+  public void invalidate(WikiReference wikiReference) {
+    cache.invalidate(wikiReference);
+  }
+
+}
@@ -0,0 +1,66 @@
+package org.projectsforge.xwiki.booktools.cache;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * The shared (cross-request) cache of the decoded entries : an entry is decoded
+ * once per JVM whatever the number of indexes citing it. The entries are
+ * queried (without loading the documents) when they are missing and
+ * invalidated when the entry documents are updated or deleted.
+ */
+@Role
+public interface EntryCache {
+
+  /**
+   * Clear the cache.
+   */
+  void clear();
+
+  /**
+   * Gets an entry.
+   *
+   * @param reference
+   *          the entry document reference
+   * @param version
+   *          the minimal document version (null to accept any version), the
+   *          entry is queried again if the cached version is older
+   * @return the entry or null if the document does not hold an entry
+   */
+  CachedEntry get(DocumentReference reference, String version);
+
+  /**
+   * Gets several entries whatever their version, the missing ones are queried
+   * at once.
+   *
+   * @param references
+   *          the entry document references
+   * @return the entries by reference (the documents not holding an entry are
+   *         missing)
+   */
+  Map<DocumentReference, CachedEntry> getAll(Collection<DocumentReference> references);
+
+  /**
+   * Gets several entries, the missing ones and the ones older than the
+   * requested version are queried at once.
+   *
+   * @param versions
+   *          the minimal document version by entry document reference (null to
+   *          accept any version)
+   * @return the entries by reference (the documents not holding an entry are
+   *         missing)
+   */
+  Map<DocumentReference, CachedEntry> getAll(Map<DocumentReference, String> versions);
+
+  /**
+   * Invalidate an entry.
+   *
+   * @param reference
+   *          the entry document reference
+   */
+  void invalidate(DocumentReference reference);
+
+}
@@ -0,0 +1,61 @@
+package org.projectsforge.xwiki.booktools.cache;
+
+import java.util.Set;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.WikiReference;
+
+/**
+ * The registry of the documents holding an index, by wiki. It is built from the
+ * index objects with a single query the first time a wiki is used and then
+ * maintained when index objects are added or removed, so that the book root of
+ * a page is resolved by looking up its ancestors references without loading any
+ * document.
+ */
+@Role
+public interface IndexRegistry {
+
+  /**
+   * Add a document holding an index.
+   *
+   * @param reference
+   *          the document reference
+   */
+  void add(DocumentReference reference);
+
+  /**
+   * Clear the registry (it will be built again on demand).
+   */
+  void clear();
+
+  /**
+   * Gets the nearest document holding an index among a document and its
+   * ancestors.
+   *
+   * @param reference
+   *          the document reference
+   * @return the index document reference or null if there is none or if the
+   *         registry is not available
+   */
+  DocumentReference getIndex(DocumentReference reference);
+
+  /**
+   * Gets the documents holding an index in a wiki.
+   *
+   * @param wikiReference
+   *          the wiki reference
+   * @return the index documents references or null if the registry can not be
+   *         built
+   */
+  Set<DocumentReference> getIndexes(WikiReference wikiReference);
+
+  /**
+   * Removes a document which does not hold an index anymore.
+   *
+   * @param reference
+   *          the document reference
+   */
+  void remove(DocumentReference reference);
+
+}
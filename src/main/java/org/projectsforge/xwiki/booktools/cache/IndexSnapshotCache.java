@@ -0,0 +1,56 @@
+package org.projectsforge.xwiki.booktools.cache;
+
+import org.projectsforge.xwiki.booktools.mapping.IndexSnapshot;
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * The shared (cross-request) cache of the published index snapshots. The
+ * snapshots are replaced atomically : a reader gets either the previous or the
+ * new snapshot of an index, never a partially updated index.
+ */
+@Role
+public interface IndexSnapshotCache {
+
+  /**
+   * Clear the cache.
+   */
+  void clear();
+
+  /**
+   * Gets the published snapshot of an index.
+   *
+   * @param reference
+   *          the index document reference
+   * @return the snapshot or null if none is published
+   */
+  IndexSnapshot get(DocumentReference reference);
+
+  /**
+   * Invalidate the snapshot of an index.
+   *
+   * @param reference
+   *          the index document reference
+   */
+  void invalidate(DocumentReference reference);
+
+  /**
+   * Publish the snapshot of an index, replacing the previous one (the index
+   * lock must be held).
+   *
+   * @param snapshot
+   *          the snapshot
+   */
+  void publish(IndexSnapshot snapshot);
+
+  /**
+   * Publish the snapshot of an index unless a snapshot is already published
+   * (used by the readers which do not hold the index lock).
+   *
+   * @param snapshot
+   *          the snapshot
+   * @return the published snapshot
+   */
+  IndexSnapshot publishIfAbsent(IndexSnapshot snapshot);
+
+}
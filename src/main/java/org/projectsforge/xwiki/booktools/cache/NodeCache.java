@@ -0,0 +1,140 @@
+package org.projectsforge.xwiki.booktools.cache;
+
+import java.util.List;
+
+import org.projectsforge.xwiki.booktools.mapping.NavigationTable;
+import org.projectsforge.xwiki.booktools.mapping.NodeInfo;
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * The shared (cross-request) cache of the data computed by the document walker
+ * nodes. The request-scoped cache is the document walker itself. The entries
+ * are invalidated when a document is created, updated or deleted.
+ */
+@Role
+public interface NodeCache {
+
+  /**
+   * Clear the cache.
+   */
+  void clear();
+
+  /**
+   * Gets the sorted children of a document.
+   *
+   * @param reference
+   *          the document reference
+   * @param includeHidden
+   *          include hidden document and space ?
+   * @return the children or null if they are not cached
+   */
+  List<DocumentReference> getChildren(DocumentReference reference, boolean includeHidden);
+
+  /**
+   * Gets the lightweight description of a document.
+   *
+   * @param reference
+   *          the document reference
+   * @return the description or null if it is not cached
+   */
+  NodeInfo getInfo(DocumentReference reference);
+
+  /**
+   * Gets the navigation table of a book.
+   *
+   * @param root
+   *          the reference of the root of the book
+   * @return the navigation table or null if it is not cached
+   */
+  NavigationTable getNavigationTable(DocumentReference root);
+
+  /**
+   * Gets the order of a document.
+   *
+   * @param reference
+   *          the document reference
+   * @return the order or null if it is not cached
+   */
+  Integer getOrder(DocumentReference reference);
+
+  /**
+   * Invalidate the data related to a document (the document and its parent).
+   * The navigation tables containing the parent are marked as outdated.
+   *
+   * @param reference
+   *          the document reference
+   */
+  void invalidate(DocumentReference reference);
+
+  /**
+   * Invalidate the data related to a created or deleted document (the document
+   * and all its ancestors since a space may have been created or removed).
+   *
+   * @param reference
+   *          the document reference
+   */
+  void invalidateHierarchy(DocumentReference reference);
+
+  /**
+   * Tests if a document holds an index.
+   *
+   * @param reference
+   *          the document reference
+   * @return true if the document holds an index, null if it is not cached
+   */
+  Boolean isIndex(DocumentReference reference);
+
+  /**
+   * Sets the sorted children of a document.
+   *
+   * @param reference
+   *          the document reference
+   * @param includeHidden
+   *          include hidden document and space ?
+   * @param children
+   *          the children
+   */
+  void setChildren(DocumentReference reference, boolean includeHidden, List<DocumentReference> children);
+
+  /**
+   * Sets if a document holds an index.
+   *
+   * @param reference
+   *          the document reference
+   * @param index
+   *          true if the document holds an index
+   */
+  void setIndex(DocumentReference reference, boolean index);
+
+  /**
+   * Sets the lightweight description of a document.
+   *
+   * @param reference
+   *          the document reference
+   * @param info
+   *          the description
+   */
+  void setInfo(DocumentReference reference, NodeInfo info);
+
+  /**
+   * Sets the navigation table of a book.
+   *
+   * @param root
+   *          the reference of the root of the book
+   * @param table
+   *          the navigation table
+   */
+  void setNavigationTable(DocumentReference root, NavigationTable table);
+
+  /**
+   * Sets the order of a document.
+   *
+   * @param reference
+   *          the document reference
+   * @param order
+   *          the order
+   */
+  void setOrder(DocumentReference reference, Integer order);
+
+}
@@ -0,0 +1,132 @@
+package org.projectsforge.xwiki.booktools.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.undercouch.citeproc.CSL;
+import de.undercouch.citeproc.ItemDataProvider;
+import de.undercouch.citeproc.csl.CSLItemData;
+
+/**
+ * A CSL engine borrowed from the {@link CSLEnginePool}. The engine is bound to
+ * a style and a locale, its items are replaced on each borrowing. It must be
+ * closed once used to return it to the pool (it must not be used anymore
+ * afterwards).
+ */
+public final class PooledCSL implements AutoCloseable {
+
+  /**
+   * The item data provider of a pooled engine : the items are replaced on each
+   * borrowing.
+   */
+  static final class Items implements ItemDataProvider {
+
+    /** The items by id. */
+    private volatile Map<String, CSLItemData> items = Collections.emptyMap();
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see de.undercouch.citeproc.ItemDataProvider#getIds()
+     */
+    @Override
+    public String[] getIds() {
+      return items.keySet().toArray(new String[0]);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see de.undercouch.citeproc.ItemDataProvider#retrieveItem(java.lang.String)
+     */
+    @Override
+    public CSLItemData retrieveItem(String id) {
+      return items.get(id);
+    }
+
+    /**
+     * Sets the items.
+     *
+     * @param itemDatas
+     *          the items
+     */
+    void set(Collection<CSLItemData> itemDatas) {
+      Map<String, CSLItemData> values = new LinkedHashMap<>();
+      for (CSLItemData itemData : itemDatas) {
+        values.put(itemData.getId(), itemData);
+      }
+      this.items = values;
+    }
+  }
+
+  /** The engine. */
+  private final CSL csl;
+
+  /** The items of the engine. */
+  private final Items items;
+
+  /** The key of the engine in the pool. */
+  private final Object key;
+
+  /** The pool. */
+  private final CSLEnginePool pool;
+
+  /**
+   * Instantiates a new pooled engine.
+   *
+   * @param pool
+   *          the pool
+   * @param key
+   *          the key of the engine in the pool
+   * @param csl
+   *          the engine
+   * @param items
+   *          the items of the engine
+   */
+  PooledCSL(CSLEnginePool pool, Object key, CSL csl, Items items) {
+    this.pool = pool;
+    this.key = key;
+    this.csl = csl;
+    this.items = items;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.lang.AutoCloseable#close()
+   */
+  @Override
+  public void close() {
+    pool.release(this);
+  }
+
+  /**
+   * Gets the engine.
+   *
+   * @return the engine
+   */
+  public CSL getCSL() {
+    return csl;
+  }
+
+  /**
+   * Gets the items of the engine.
+   *
+   * @return the items
+   */
+  Items getItems() {
+    return items;
+  }
+
+  /**
+   * Gets the key of the engine in the pool.
+   *
+   * @return the key
+   */
+  Object getKey() {
+    return key;
+  }
+
+}
@@ -0,0 +1,87 @@
+package org.projectsforge.xwiki.booktools.cache;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import de.undercouch.citeproc.output.Bibliography;
+
+/**
+ * An immutable rendered bibliography : the entry ids in order, the rendered
+ * entries and the bibliography start and end.
+ */
+public final class RenderedBibliography {
+
+  /** The bibliography end. */
+  private final String bibEnd;
+
+  /** The bibliography start. */
+  private final String bibStart;
+
+  /** The rendered entries. */
+  private final List<String> entries;
+
+  /** The entry ids. */
+  private final List<String> entryIds;
+
+  /**
+   * Instantiates a new rendered bibliography from the output of a CSL engine.
+   *
+   * @param bibliography
+   *          the bibliography
+   */
+  public RenderedBibliography(Bibliography bibliography) {
+    this.entryIds = toList(bibliography.getEntryIds());
+    this.entries = toList(bibliography.getEntries());
+    this.bibStart = bibliography.getBibStart();
+    this.bibEnd = bibliography.getBibEnd();
+  }
+
+  /**
+   * Copy an array into an unmodifiable list.
+   *
+   * @param values
+   *          the values (can be null)
+   * @return the list
+   */
+  private static List<String> toList(String[] values) {
+    return values == null ? Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(values.clone()));
+  }
+
+  /**
+   * Gets the bibliography end.
+   *
+   * @return the bibliography end (can be null)
+   */
+  public String getBibEnd() {
+    return bibEnd;
+  }
+
+  /**
+   * Gets the bibliography start.
+   *
+   * @return the bibliography start (can be null)
+   */
+  public String getBibStart() {
+    return bibStart;
+  }
+
+  /**
+   * Gets the rendered entries, in the order of the entry ids.
+   *
+   * @return the rendered entries
+   */
+  public List<String> getEntries() {
+    return entries;
+  }
+
+  /**
+   * Gets the entry ids in order.
+   *
+   * @return the entry ids
+   */
+  public List<String> getEntryIds() {
+    return entryIds;
+  }
+
+}
@@ -0,0 +1,89 @@
+package org.projectsforge.xwiki.booktools.cache;
+
+import org.projectsforge.xwiki.booktools.mapping.IndexSnapshot;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * The key of a rendering of an index : the generation of the index snapshot,
+ * the style, the locale and what is rendered. The hash is computed once.
+ */
+final class RenderingKey {
+
+  /** The generation of the index snapshot. */
+  private final long generation;
+
+  /** The hash. */
+  private final int hash;
+
+  /** The index document reference. */
+  private final DocumentReference indexReference;
+
+  /** The locale. */
+  private final String locale;
+
+  /** What is rendered (e.g. the normalized keys of a citation). */
+  private final String rendered;
+
+  /** The style. */
+  private final String style;
+
+  /**
+   * Instantiates a new rendering key.
+   *
+   * @param snapshot
+   *          the index snapshot
+   * @param style
+   *          the style
+   * @param locale
+   *          the locale
+   * @param rendered
+   *          what is rendered
+   */
+  RenderingKey(IndexSnapshot snapshot, String style, String locale, String rendered) {
+    this.indexReference = snapshot.getIndexReference();
+    this.generation = snapshot.getGeneration();
+    this.style = style;
+    this.locale = locale;
+    this.rendered = rendered;
+    this.hash = 31 * (31 * (31 * Long.hashCode(generation) + style.hashCode()) + locale.hashCode())
+        + rendered.hashCode();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.lang.Object#equals(java.lang.Object)
+   */
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof RenderingKey)) {
+      return false;
+    }
+    RenderingKey other = (RenderingKey) obj;
+    return hash == other.hash && generation == other.generation && locale.equals(other.locale)
+        && rendered.equals(other.rendered) && style.equals(other.style);
+  }
+
+  /**
+   * Gets the index document reference.
+   *
+   * @return the index document reference
+   */
+  DocumentReference getIndexReference() {
+    return indexReference;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.lang.Object#hashCode()
+   */
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+}
@@ -0,0 +1,39 @@
+package org.projectsforge.xwiki.booktools.cache;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.WikiReference;
+
+/**
+ * The registry of the bibliography styles of the default configuration of each
+ * wiki. A style is read from the configuration document (or from the default
+ * style of the classpath) the first time it is used and then kept until the
+ * configuration of the wiki is updated.
+ */
+@Role
+public interface StyleRegistry {
+
+  /**
+   * Clear the registry (the styles will be resolved again on demand).
+   */
+  void clear();
+
+  /**
+   * Gets a style of the default configuration of a wiki.
+   *
+   * @param wikiReference
+   *          the wiki reference
+   * @param fieldName
+   *          the field name of the style
+   * @return the style
+   */
+  CachedStyle getStyle(WikiReference wikiReference, String fieldName);
+
+  /**
+   * Invalidate the styles of a wiki.
+   *
+   * @param wikiReference
+   *          the wiki reference
+   */
+  void invalidate(WikiReference wikiReference);
+
+}
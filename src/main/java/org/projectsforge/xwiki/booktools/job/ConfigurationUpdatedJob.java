@@ -1,5 +1,6 @@
 package org.projectsforge.xwiki.booktools.job;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -8,6 +9,7 @@ import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.apache.commons.lang3.StringUtils;
+import org.projectsforge.xwiki.booktools.mapping.DocumentWalker;
 import org.projectsforge.xwiki.booktools.mapping.Entry;
 import org.projectsforge.xwiki.booktools.service.BookToolsService;
 import org.xwiki.component.annotation.Component;
@@ -90,8 +92,26 @@ public class ConfigurationUpdatedJob
 
       progressManager.pushLevelProgress(results.size(), this);
       try {
-        for (String result : results) {
-          service.getDocumentWalker().getNode(documentReferenceResolver.resolve(result)).wrapAsEntry().update();
+        // the entries are rendered by chunks with a single engine and only the
+        // modified ones are saved
+        for (int i = 0; i < results.size(); i += Entry.RENDER_CHUNK_SIZE) {
+          // a walker dedicated to the chunk (not bound to the request which
+          // started the job) so that the documents of the previous chunks can
+          // be released
+          DocumentWalker walker = service.createDocumentWalker();
+          List<Entry> entries = new ArrayList<>();
+          for (String result : results.subList(i, Math.min(i + Entry.RENDER_CHUNK_SIZE, results.size()))) {
+            entries.add(walker.getNode(documentReferenceResolver.resolve(result, wikiReference)).wrapAsEntry());
+          }
+          Entry.update(entries);
+          for (Entry entry : entries) {
+            progressManager.startStep(this);
+            try {
+              entry.save();
+            } finally {
+              progressManager.endStep(this);
+            }
+          }
         }
       } finally {
         progressManager.popLevelProgress(this);
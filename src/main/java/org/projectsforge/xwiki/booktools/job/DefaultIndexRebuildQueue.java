@@ -0,0 +1,259 @@
+package org.projectsforge.xwiki.booktools.job;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.job.JobException;
+import org.xwiki.job.JobExecutor;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * The default implementation of the index rebuild queue. The requests of an
+ * index postpone its rebuild until no request is received during the debounce
+ * window (or until the rebuild has been postponed for ten windows). A request
+ * received while the index is being rebuilt starts a new rebuild once the
+ * current one is over.
+ */
+@Component
+@Singleton
+public class DefaultIndexRebuildQueue implements IndexRebuildQueue, Initializable, Disposable {
+
+  /**
+   * A rebuild waiting for the end of the debounce window.
+   */
+  private static class Pending {
+
+    /** The scheduled submission (null if it waits for a running rebuild). */
+    private ScheduledFuture<?> future;
+
+    /** The time of the first request (in nanoseconds). */
+    private final long requestTime;
+
+    /** The user who requested the rebuild. */
+    private DocumentReference userReference;
+
+    /**
+     * Instantiates a new pending rebuild.
+     *
+     * @param requestTime
+     *          the time of the first request (in nanoseconds)
+     */
+    Pending(long requestTime) {
+      this.requestTime = requestTime;
+    }
+  }
+
+  /** The configuration key of the debounce window (in milliseconds). */
+  private static final String CONFIGURATION_DEBOUNCE = "booktools.index.rebuildDebounce";
+
+  /** The default debounce window (in milliseconds). */
+  private static final long DEFAULT_DEBOUNCE = 2000;
+
+  /** The maximum number of debounce windows a rebuild can be postponed. */
+  private static final int MAX_POSTPONED_WINDOWS = 10;
+
+  /** The configuration. */
+  @Inject
+  @Named("xwikiproperties")
+  private ConfigurationSource configuration;
+
+  /** The context provider. */
+  @Inject
+  private Provider<XWikiContext> contextProvider;
+
+  /** The debounce window (in milliseconds). */
+  private long debounce;
+
+  /** The executor delaying the submissions. */
+  private ScheduledExecutorService executor;
+
+  /** The job executor. */
+  @Inject
+  private JobExecutor jobExecutor;
+
+  /** The duration of the last rebuild (in milliseconds). */
+  private final AtomicLong lastRebuildLatency = new AtomicLong(-1);
+
+  /** The logger. */
+  @Inject
+  private Logger logger;
+
+  /** The pending rebuilds by index. */
+  private final Map<DocumentReference, Pending> pending = new HashMap<>();
+
+  /** The indexes being rebuilt. */
+  private final Set<DocumentReference> running = new HashSet<>();
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.xwiki.component.phase.Disposable#dispose()
+   */
+  @Override
+  public void dispose() {
+    executor.shutdownNow();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.job.IndexRebuildQueue#getLastRebuildLatency
+   * ()
+   */
+  @Override
+  public long getLastRebuildLatency() {
+    return lastRebuildLatency.get();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.projectsforge.xwiki.booktools.job.IndexRebuildQueue#getQueueDepth()
+   */
+  @Override
+  public synchronized int getQueueDepth() {
+    Set<DocumentReference> indexes = new HashSet<>(pending.keySet());
+    indexes.addAll(running);
+    return indexes.size();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.xwiki.component.phase.Initializable#initialize()
+   */
+  @Override
+  public void initialize() throws InitializationException {
+    debounce = Math.max(0, configuration.getProperty(CONFIGURATION_DEBOUNCE, DEFAULT_DEBOUNCE));
+    executor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("booktools-index-rebuild-%d").setDaemon(true).build());
+  }
+
+  /**
+   * Submit the rebuild of an index at the end of its debounce window.
+   *
+   * @param reference
+   *          the index document reference
+   */
+  private void onWindowEnd(DocumentReference reference) {
+    Pending rebuild;
+    synchronized (this) {
+      rebuild = pending.get(reference);
+      if (rebuild == null) {
+        return;
+      }
+      if (running.contains(reference)) {
+        // submitted once the running rebuild is over
+        rebuild.future = null;
+        return;
+      }
+      pending.remove(reference);
+      running.add(reference);
+    }
+    submit(reference, rebuild);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.job.IndexRebuildQueue#rebuilt(org.xwiki.
+   * model.reference.DocumentReference, long)
+   */
+  @Override
+  public void rebuilt(DocumentReference reference, long requestTime) {
+    lastRebuildLatency.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - requestTime));
+    Pending rebuild;
+    synchronized (this) {
+      running.remove(reference);
+      rebuild = pending.get(reference);
+      if (rebuild == null || rebuild.future != null) {
+        // nothing is waiting for this rebuild
+        return;
+      }
+      pending.remove(reference);
+      running.add(reference);
+    }
+    submit(reference, rebuild);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.job.IndexRebuildQueue#schedule(org.xwiki.
+   * model.reference.DocumentReference)
+   */
+  @Override
+  public synchronized void schedule(DocumentReference reference) {
+    long now = System.nanoTime();
+    Pending rebuild = pending.get(reference);
+    if (rebuild == null) {
+      rebuild = new Pending(now);
+      pending.put(reference, rebuild);
+    } else if (rebuild.future == null) {
+      // already waiting for a running rebuild
+      rebuild.userReference = contextProvider.get().getUserReference();
+      return;
+    } else if (TimeUnit.NANOSECONDS.toMillis(now - rebuild.requestTime) > debounce * MAX_POSTPONED_WINDOWS) {
+      // postponed for too long
+      rebuild.userReference = contextProvider.get().getUserReference();
+      return;
+    } else {
+      rebuild.future.cancel(false);
+    }
+    rebuild.userReference = contextProvider.get().getUserReference();
+    rebuild.future = executor.schedule(() -> onWindowEnd(reference), debounce, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Start the rebuild job of an index.
+   *
+   * @param reference
+   *          the index document reference
+   * @param rebuild
+   *          the pending rebuild
+   */
+  private void submit(DocumentReference reference, Pending rebuild) {
+    IndexRebuildJobRequest request = new IndexRebuildJobRequest();
+    request.setId(Arrays.asList(IndexRebuildJob.JOB_TYPE, UUID.randomUUID().toString()));
+    request.setInteractive(false);
+    request.setVerbose(false);
+    request.setIndexReference(reference);
+    request.setUserReference(rebuild.userReference);
+    request.setRequestTime(rebuild.requestTime);
+    try {
+      jobExecutor.execute(IndexRebuildJob.JOB_TYPE, request);
+    } catch (JobException ex) {
+      logger.warn("An error occurred while starting the rebuild of index " + reference, ex);
+      synchronized (this) {
+        running.remove(reference);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,96 @@
+package org.projectsforge.xwiki.booktools.job;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.job.JobException;
+import org.xwiki.job.JobExecutor;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * The default implementation of the local index reconciler. A page is
+ * reconciled by at most one job at a time.
+ */
+@Component
+@Singleton
+public class DefaultLocalIndexReconciler implements LocalIndexReconciler {
+
+  /** The context provider. */
+  @Inject
+  private Provider<XWikiContext> contextProvider;
+
+  /** The job executor. */
+  @Inject
+  private JobExecutor jobExecutor;
+
+  /** The logger. */
+  @Inject
+  private Logger logger;
+
+  /** The pages being reconciled. */
+  private final Set<DocumentReference> running = ConcurrentHashMap.newKeySet();
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.job.LocalIndexReconciler#getQueueDepth()
+   */
+  @Override
+  public int getQueueDepth() {
+    return running.size();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.job.LocalIndexReconciler#reconciled(org.
+   * xwiki.model.reference.DocumentReference)
+   */
+  @Override
+  public void reconciled(DocumentReference reference) {
+    running.remove(reference);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.job.LocalIndexReconciler#schedule(org.
+   * xwiki.model.reference.DocumentReference, java.util.List, boolean)
+   */
+  @Override
+  public void schedule(DocumentReference reference, List<String> keys, boolean bibliographyPage) {
+    if (!running.add(reference)) {
+      return;
+    }
+    LocalIndexReconcileJobRequest request = new LocalIndexReconcileJobRequest();
+    request.setId(Arrays.asList(LocalIndexReconcileJob.JOB_TYPE, UUID.randomUUID().toString()));
+    request.setInteractive(false);
+    request.setVerbose(false);
+    request.setDocumentReference(reference);
+    request.setKeys(new ArrayList<>(keys));
+    request.setBibliographyPage(bibliographyPage);
+    request.setUserReference(contextProvider.get().getUserReference());
+    try {
+      jobExecutor.execute(LocalIndexReconcileJob.JOB_TYPE, request);
+    } catch (JobException ex) {
+      logger.warn("An error occurred while starting the reconciliation of the local index of " + reference, ex);
+      running.remove(reference);
+    }
+  }
+
+}
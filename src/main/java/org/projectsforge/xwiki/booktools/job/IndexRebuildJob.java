@@ -0,0 +1,68 @@
+package org.projectsforge.xwiki.booktools.job;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.projectsforge.xwiki.booktools.mapping.DocumentWalker.Node;
+import org.projectsforge.xwiki.booktools.service.BookToolsService;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.job.AbstractJob;
+import org.xwiki.job.DefaultJobStatus;
+
+/**
+ * The job rebuilding an index in background. The job is not grouped so that
+ * the indexes of independent books are rebuilt in parallel, the queue never
+ * runs two rebuilds of the same index at once.
+ *
+ * @see IndexRebuildQueue
+ */
+@Component
+@Named(IndexRebuildJob.JOB_TYPE)
+public class IndexRebuildJob extends AbstractJob<IndexRebuildJobRequest, DefaultJobStatus<IndexRebuildJobRequest>> {
+
+  /** The Constant JOB_TYPE. */
+  public static final String JOB_TYPE = "booktools-index-rebuild";
+
+  /** The rebuild queue. */
+  @Inject
+  private IndexRebuildQueue queue;
+
+  /** The service. */
+  @Inject
+  private BookToolsService service;
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.xwiki.job.Job#getType()
+   */
+  @Override
+  public String getType() {
+    return JOB_TYPE;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.xwiki.job.AbstractJob#runInternal()
+   */
+  @Override
+  protected void runInternal() throws Exception {
+    try {
+      // the index is saved by the user who triggered the rebuild
+      service.getContext().setUserReference(request.getUserReference());
+
+      // a walker dedicated to the job (not bound to the request which started
+      // it)
+      Node node = service.createDocumentWalker().getNode(request.getIndexReference());
+      if (node.isIndex()) {
+        node.wrapAsIndex().rebuildAndSave();
+      }
+    } catch (Exception ex) {
+      logger.warn("An error occurred while rebuilding index " + request.getIndexReference(), ex);
+    } finally {
+      queue.rebuilt(request.getIndexReference(), request.getRequestTime());
+    }
+  }
+
+}
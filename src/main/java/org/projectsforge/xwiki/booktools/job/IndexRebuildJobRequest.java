@@ -0,0 +1,79 @@
+package org.projectsforge.xwiki.booktools.job;
+
+import org.xwiki.job.AbstractRequest;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * The Class IndexRebuildJobRequest.
+ */
+public class IndexRebuildJobRequest extends AbstractRequest {
+
+  /** The Constant PROPERTY_INDEX_REFERENCE. */
+  private static final String PROPERTY_INDEX_REFERENCE = "indexReference";
+
+  /** The Constant PROPERTY_REQUEST_TIME. */
+  private static final String PROPERTY_REQUEST_TIME = "requestTime";
+
+  /** The Constant PROPERTY_USER_REFERENCE. */
+  private static final String PROPERTY_USER_REFERENCE = "userReference";
+
+  /** The Constant serialVersionUID. */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Gets the index reference.
+   *
+   * @return the index reference
+   */
+  public DocumentReference getIndexReference() {
+    return getProperty(PROPERTY_INDEX_REFERENCE);
+  }
+
+  /**
+   * Gets the time of the first request of the rebuild.
+   *
+   * @return the time in nanoseconds
+   */
+  public long getRequestTime() {
+    return getProperty(PROPERTY_REQUEST_TIME);
+  }
+
+  /**
+   * Gets the user reference.
+   *
+   * @return the user reference
+   */
+  public DocumentReference getUserReference() {
+    return getProperty(PROPERTY_USER_REFERENCE);
+  }
+
+  /**
+   * Sets the index reference.
+   *
+   * @param indexReference
+   *          the new index reference
+   */
+  public void setIndexReference(DocumentReference indexReference) {
+    setProperty(PROPERTY_INDEX_REFERENCE, indexReference);
+  }
+
+  /**
+   * Sets the time of the first request of the rebuild.
+   *
+   * @param requestTime
+   *          the time in nanoseconds
+   */
+  public void setRequestTime(long requestTime) {
+    setProperty(PROPERTY_REQUEST_TIME, requestTime);
+  }
+
+  /**
+   * Sets the user reference (the user saving the index).
+   *
+   * @param userReference
+   *          the new user reference
+   */
+  public void setUserReference(DocumentReference userReference) {
+    setProperty(PROPERTY_USER_REFERENCE, userReference);
+  }
+}
@@ -0,0 +1,49 @@
+package org.projectsforge.xwiki.booktools.job;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * The queue of the index rebuilds. The rebuild requests of an index received
+ * within the debounce window (<tt>booktools.index.rebuildDebounce</tt> in
+ * xwiki.properties, in milliseconds) are coalesced and the index is rebuilt
+ * once in background by an {@link IndexRebuildJob}. Until the rebuild is saved,
+ * the readers keep using the previous content of the index.
+ */
+@Role
+public interface IndexRebuildQueue {
+
+  /**
+   * Gets the duration of the last rebuild, from the first request to the save
+   * of the index.
+   *
+   * @return the duration in milliseconds or -1 if no index has been rebuilt
+   */
+  long getLastRebuildLatency();
+
+  /**
+   * Gets the number of indexes waiting for a rebuild or being rebuilt.
+   *
+   * @return the queue depth
+   */
+  int getQueueDepth();
+
+  /**
+   * Notify the end of a rebuild.
+   *
+   * @param reference
+   *          the index document reference
+   * @param requestTime
+   *          the time of the first request of the rebuild (in nanoseconds)
+   */
+  void rebuilt(DocumentReference reference, long requestTime);
+
+  /**
+   * Request the rebuild of an index.
+   *
+   * @param reference
+   *          the index document reference
+   */
+  void schedule(DocumentReference reference);
+
+}
@@ -0,0 +1,71 @@
+package org.projectsforge.xwiki.booktools.job;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.projectsforge.xwiki.booktools.mapping.DocumentWalker.Node;
+import org.projectsforge.xwiki.booktools.mapping.LocalIndex;
+import org.projectsforge.xwiki.booktools.service.BookToolsService;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.job.AbstractJob;
+import org.xwiki.job.DefaultJobStatus;
+
+/**
+ * The job saving the local index of a page in background.
+ *
+ * @see LocalIndexReconciler
+ */
+@Component
+@Named(LocalIndexReconcileJob.JOB_TYPE)
+public class LocalIndexReconcileJob
+    extends AbstractJob<LocalIndexReconcileJobRequest, DefaultJobStatus<LocalIndexReconcileJobRequest>> {
+
+  /** The Constant JOB_TYPE. */
+  public static final String JOB_TYPE = "booktools-local-index-reconcile";
+
+  /** The reconciler. */
+  @Inject
+  private LocalIndexReconciler reconciler;
+
+  /** The service. */
+  @Inject
+  private BookToolsService service;
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.xwiki.job.Job#getType()
+   */
+  @Override
+  public String getType() {
+    return JOB_TYPE;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.xwiki.job.AbstractJob#runInternal()
+   */
+  @Override
+  protected void runInternal() throws Exception {
+    try {
+      // the page is saved by the user who displayed it
+      service.getContext().setUserReference(request.getUserReference());
+
+      // a walker dedicated to the job (not bound to the request which started
+      // it)
+      Node node = service.createDocumentWalker().getNode(request.getDocumentReference());
+      LocalIndex localIndex = node.wrapAsLocalIndex(node.getRootNode().wrapIfIndex());
+      localIndex.setKeys(request.getKeys());
+      localIndex.setIsBookToolsPage(request.isBibliographyPage());
+      // nothing is saved if the local index is already up to date, otherwise
+      // IndexUpdaterListener applies the change to the index
+      localIndex.save();
+    } catch (Exception ex) {
+      logger.warn("An error occurred while reconciling the local index of " + request.getDocumentReference(), ex);
+    } finally {
+      reconciler.reconciled(request.getDocumentReference());
+    }
+  }
+
+}
@@ -0,0 +1,103 @@
+package org.projectsforge.xwiki.booktools.job;
+
+import java.util.List;
+
+import org.xwiki.job.AbstractRequest;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * The Class LocalIndexReconcileJobRequest.
+ */
+public class LocalIndexReconcileJobRequest extends AbstractRequest {
+
+  /** The Constant PROPERTY_BIBLIOGRAPHY_PAGE. */
+  private static final String PROPERTY_BIBLIOGRAPHY_PAGE = "bibliographyPage";
+
+  /** The Constant PROPERTY_DOCUMENT_REFERENCE. */
+  private static final String PROPERTY_DOCUMENT_REFERENCE = "documentReference";
+
+  /** The Constant PROPERTY_KEYS. */
+  private static final String PROPERTY_KEYS = "keys";
+
+  /** The Constant PROPERTY_USER_REFERENCE. */
+  private static final String PROPERTY_USER_REFERENCE = "userReference";
+
+  /** The Constant serialVersionUID. */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Gets the document reference.
+   *
+   * @return the document reference
+   */
+  public DocumentReference getDocumentReference() {
+    return getProperty(PROPERTY_DOCUMENT_REFERENCE);
+  }
+
+  /**
+   * Gets the keys cited by the page.
+   *
+   * @return the keys
+   */
+  public List<String> getKeys() {
+    return getProperty(PROPERTY_KEYS);
+  }
+
+  /**
+   * Gets the user reference.
+   *
+   * @return the user reference
+   */
+  public DocumentReference getUserReference() {
+    return getProperty(PROPERTY_USER_REFERENCE);
+  }
+
+  /**
+   * Tests if the page displays the bibliography of the book.
+   *
+   * @return true if the page displays the bibliography of the book
+   */
+  public boolean isBibliographyPage() {
+    return getProperty(PROPERTY_BIBLIOGRAPHY_PAGE);
+  }
+
+  /**
+   * Sets if the page displays the bibliography of the book.
+   *
+   * @param bibliographyPage
+   *          true if the page displays the bibliography of the book
+   */
+  public void setBibliographyPage(boolean bibliographyPage) {
+    setProperty(PROPERTY_BIBLIOGRAPHY_PAGE, bibliographyPage);
+  }
+
+  /**
+   * Sets the document reference.
+   *
+   * @param documentReference
+   *          the new document reference
+   */
+  public void setDocumentReference(DocumentReference documentReference) {
+    setProperty(PROPERTY_DOCUMENT_REFERENCE, documentReference);
+  }
+
+  /**
+   * Sets the keys cited by the page.
+   *
+   * @param keys
+   *          the new keys
+   */
+  public void setKeys(List<String> keys) {
+    setProperty(PROPERTY_KEYS, keys);
+  }
+
+  /**
+   * Sets the user reference (the user saving the page).
+   *
+   * @param userReference
+   *          the new user reference
+   */
+  public void setUserReference(DocumentReference userReference) {
+    setProperty(PROPERTY_USER_REFERENCE, userReference);
+  }
+}
@@ -0,0 +1,47 @@
+package org.projectsforge.xwiki.booktools.job;
+
+import java.util.List;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * The reconciler of the local indexes. The bibliography macro does not write
+ * during the rendering : when the citations found on a page differ from its
+ * local index, the change is queued and saved in background by a
+ * {@link LocalIndexReconcileJob} (the save then updates the book index through
+ * the listeners).
+ */
+@Role
+public interface LocalIndexReconciler {
+
+  /**
+   * Gets the number of pages waiting for a reconciliation or being reconciled.
+   *
+   * @return the queue depth
+   */
+  int getQueueDepth();
+
+  /**
+   * Notify the end of a reconciliation.
+   *
+   * @param reference
+   *          the page reference
+   */
+  void reconciled(DocumentReference reference);
+
+  /**
+   * Request the reconciliation of the local index of a page. The request is
+   * ignored if the page is already being reconciled (the drift, if any, will be
+   * found again by the next rendering).
+   *
+   * @param reference
+   *          the page reference
+   * @param keys
+   *          the keys cited by the page
+   * @param bibliographyPage
+   *          true if the page displays the bibliography of the book
+   */
+  void schedule(DocumentReference reference, List<String> keys, boolean bibliographyPage);
+
+}
@@ -0,0 +1,87 @@
+package org.projectsforge.xwiki.booktools.job;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.projectsforge.xwiki.booktools.mapping.DocumentWalker;
+import org.projectsforge.xwiki.booktools.mapping.DocumentWalker.Node;
+import org.projectsforge.xwiki.booktools.mapping.SubtreeMove;
+import org.projectsforge.xwiki.booktools.service.BookToolsService;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.job.AbstractJob;
+import org.xwiki.job.DefaultJobStatus;
+import org.xwiki.job.GroupedJob;
+import org.xwiki.job.JobGroupPath;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * The job moving pages (with their subtrees) as children of a page.
+ *
+ * @see SubtreeMove
+ */
+@Component
+@Named(MoveSubtreeJob.JOB_TYPE)
+public class MoveSubtreeJob extends AbstractJob<MoveSubtreeJobRequest, DefaultJobStatus<MoveSubtreeJobRequest>>
+    implements GroupedJob {
+
+  /** The Constant JOB_TYPE. */
+  public static final String JOB_TYPE = "booktools-move-subtree";
+
+  /** The service. */
+  @Inject
+  private BookToolsService service;
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.xwiki.job.GroupedJob#getGroupPath()
+   */
+  @Override
+  public JobGroupPath getGroupPath() {
+    // the moves in a wiki are done one at a time
+    String wiki = this.request.getParentReference().getWikiReference().getName();
+    return new JobGroupPath(Arrays.asList(JOB_TYPE, wiki));
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.xwiki.job.Job#getType()
+   */
+  @Override
+  public String getType() {
+    return JOB_TYPE;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.xwiki.job.AbstractJob#runInternal()
+   */
+  @Override
+  protected void runInternal() throws Exception {
+    try {
+      // the rights are checked for the user who requested the move
+      service.getContext().setUserReference(request.getUserReference());
+
+      DocumentWalker walker = service.createDocumentWalker();
+      Node parent = walker.getNode(request.getParentReference());
+      List<Node> children = new ArrayList<>();
+      for (DocumentReference childReference : request.getChildrenReferences()) {
+        children.add(walker.getNode(childReference));
+      }
+
+      SubtreeMove move = new SubtreeMove(parent, children, request.isReorder());
+      if (!move.execute(progressManager, this)) {
+        logger.warn("Some pages have not been moved as children of {}", request.getParentReference());
+      }
+    } catch (Exception ex) {
+      logger.warn("An error occurred while moving pages ", ex);
+    }
+  }
+
+}
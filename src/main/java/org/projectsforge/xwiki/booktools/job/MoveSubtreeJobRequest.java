@@ -0,0 +1,103 @@
+package org.projectsforge.xwiki.booktools.job;
+
+import java.util.List;
+
+import org.xwiki.job.AbstractRequest;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * The Class MoveSubtreeJobRequest.
+ */
+public class MoveSubtreeJobRequest extends AbstractRequest {
+
+  /** The Constant PROPERTY_CHILDREN_REFERENCES. */
+  private static final String PROPERTY_CHILDREN_REFERENCES = "childrenReferences";
+
+  /** The Constant PROPERTY_PARENT_REFERENCE. */
+  private static final String PROPERTY_PARENT_REFERENCE = "parentReference";
+
+  /** The Constant PROPERTY_REORDER. */
+  private static final String PROPERTY_REORDER = "reorder";
+
+  /** The Constant PROPERTY_USER_REFERENCE. */
+  private static final String PROPERTY_USER_REFERENCE = "userReference";
+
+  /** The Constant serialVersionUID. */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Gets the references of the pages to move.
+   *
+   * @return the references of the pages to move
+   */
+  public List<DocumentReference> getChildrenReferences() {
+    return getProperty(PROPERTY_CHILDREN_REFERENCES);
+  }
+
+  /**
+   * Gets the new parent reference.
+   *
+   * @return the new parent reference
+   */
+  public DocumentReference getParentReference() {
+    return getProperty(PROPERTY_PARENT_REFERENCE);
+  }
+
+  /**
+   * Gets the user reference.
+   *
+   * @return the user reference
+   */
+  public DocumentReference getUserReference() {
+    return getProperty(PROPERTY_USER_REFERENCE);
+  }
+
+  /**
+   * Checks if the pages must be ordered according to their position.
+   *
+   * @return true, if the pages must be ordered
+   */
+  public boolean isReorder() {
+    return Boolean.TRUE.equals(getProperty(PROPERTY_REORDER));
+  }
+
+  /**
+   * Sets the references of the pages to move.
+   *
+   * @param childrenReferences
+   *          the new references of the pages to move
+   */
+  public void setChildrenReferences(List<DocumentReference> childrenReferences) {
+    setProperty(PROPERTY_CHILDREN_REFERENCES, childrenReferences);
+  }
+
+  /**
+   * Sets the new parent reference.
+   *
+   * @param parentReference
+   *          the new parent reference
+   */
+  public void setParentReference(DocumentReference parentReference) {
+    setProperty(PROPERTY_PARENT_REFERENCE, parentReference);
+  }
+
+  /**
+   * Sets if the pages must be ordered according to their position.
+   *
+   * @param reorder
+   *          true if the pages must be ordered
+   */
+  public void setReorder(boolean reorder) {
+    setProperty(PROPERTY_REORDER, reorder);
+  }
+
+  /**
+   * Sets the user reference (the user moving the pages).
+   *
+   * @param userReference
+   *          the new user reference
+   */
+  public void setUserReference(DocumentReference userReference) {
+    setProperty(PROPERTY_USER_REFERENCE, userReference);
+  }
+}
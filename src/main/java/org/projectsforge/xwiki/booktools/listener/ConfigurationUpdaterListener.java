@@ -8,6 +8,9 @@ import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.projectsforge.xwiki.booktools.cache.BibliographyCache;
+import org.projectsforge.xwiki.booktools.cache.CitationCache;
+import org.projectsforge.xwiki.booktools.cache.StyleRegistry;
 import org.projectsforge.xwiki.booktools.job.ConfigurationUpdatedJob;
 import org.projectsforge.xwiki.booktools.job.ConfigurationUpdatedJobRequest;
 import org.projectsforge.xwiki.booktools.mapping.Configuration;
@@ -31,6 +34,14 @@ import com.xpn.xwiki.doc.XWikiDocument;
 @Named("ConfigurationUpdaterListener")
 public class ConfigurationUpdaterListener implements EventListener {
 
+  /** The rendered bibliography cache. */
+  @Inject
+  private BibliographyCache bibliographyCache;
+
+  /** The rendered citation cache. */
+  @Inject
+  private CitationCache citationCache;
+
   /** The job executor. */
   @Inject
   private JobExecutor jobExecutor;
@@ -39,6 +50,10 @@ public class ConfigurationUpdaterListener implements EventListener {
   @Inject
   private BookToolsService service;
 
+  /** The style registry. */
+  @Inject
+  private StyleRegistry styleRegistry;
+
   /*
    * (non-Javadoc)
    *
@@ -75,6 +90,9 @@ public class ConfigurationUpdaterListener implements EventListener {
     if (document.getXObject(Configuration.CLASS_REFERENCE) != null) {
       // a configuration has been saved => we trigger an update of the entries
       // to be up to date with the configuration
+      styleRegistry.invalidate(document.getDocumentReference().getWikiReference());
+      bibliographyCache.clear();
+      citationCache.clear();
 
       ConfigurationUpdatedJobRequest request = new ConfigurationUpdatedJobRequest();
       request.setId(Arrays.asList(ConfigurationUpdatedJob.JOB_TYPE, UUID.randomUUID().toString()));
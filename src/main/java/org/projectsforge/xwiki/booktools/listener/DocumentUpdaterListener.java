@@ -11,7 +11,6 @@ import org.projectsforge.xwiki.booktools.mapping.Annotation;
 import org.projectsforge.xwiki.booktools.mapping.Attachment;
 import org.projectsforge.xwiki.booktools.mapping.DocumentWalker.Node;
 import org.projectsforge.xwiki.booktools.mapping.Entry;
-import org.projectsforge.xwiki.booktools.mapping.Index;
 import org.projectsforge.xwiki.booktools.mapping.Person;
 import org.projectsforge.xwiki.booktools.service.BookToolsService;
 import org.xwiki.bridge.event.DocumentCreatingEvent;
@@ -72,21 +71,14 @@ public class DocumentUpdaterListener implements EventListener {
 
     Node node = service.getDocumentWalker().wrapNode(document);
 
-    // IndexClass update
-    if (node.isIndex()) {
-      // it's an index, expire it then update
-      Index index = node.wrapAsIndex();
-      index.setExpired(true);
-      index.update();
-    }
-
     // PersonClass update
     if (document.getXObject(Person.CLASS_REFERENCE) != null) {
       new Person(node).update();
     }
 
-    // EntryClass update
-    if (document.getXObject(Entry.CLASS_REFERENCE) != null) {
+    // EntryClass update (unless the entry has already been rendered)
+    if (document.getXObject(Entry.CLASS_REFERENCE) != null
+        && !Entry.isRenderedSave(service.getContext(), document.getDocumentReference())) {
       new Entry(node).update();
     }
 
@@ -0,0 +1,68 @@
+package org.projectsforge.xwiki.booktools.listener;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.projectsforge.xwiki.booktools.cache.EntryCache;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * An EventListener used to monitor document creation, deletion and update to
+ * invalidate the shared entry cache.
+ *
+ * @see EntryCache
+ */
+@Component
+@Singleton
+@Named("EntryCacheInvalidationListener")
+public class EntryCacheInvalidationListener implements EventListener {
+
+  /** The entry cache. */
+  @Inject
+  private EntryCache entryCache;
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.xwiki.observation.EventListener#getEvents()
+   */
+  @Override
+  public List<Event> getEvents() {
+    return Arrays.<Event> asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(), new DocumentDeletedEvent());
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.xwiki.observation.EventListener#getName()
+   */
+  @Override
+  public String getName() {
+    return EntryCacheInvalidationListener.class.getName();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.xwiki.observation.EventListener#onEvent(org.xwiki.observation.event.
+   * Event, java.lang.Object, java.lang.Object)
+   */
+  @Override
+  public void onEvent(Event event, Object sourceDocument, Object sourceContext) {
+    XWikiDocument document = (XWikiDocument) sourceDocument;
+    entryCache.invalidate(document.getDocumentReference());
+  }
+
+}
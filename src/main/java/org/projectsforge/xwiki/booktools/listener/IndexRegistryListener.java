@@ -0,0 +1,155 @@
+package org.projectsforge.xwiki.booktools.listener;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.projectsforge.xwiki.booktools.EncodedEntries;
+import org.projectsforge.xwiki.booktools.Utils;
+import org.projectsforge.xwiki.booktools.cache.BibliographyCache;
+import org.projectsforge.xwiki.booktools.cache.CitationCache;
+import org.projectsforge.xwiki.booktools.cache.CitationRegistry;
+import org.projectsforge.xwiki.booktools.cache.IndexRegistry;
+import org.projectsforge.xwiki.booktools.cache.IndexSnapshotCache;
+import org.projectsforge.xwiki.booktools.mapping.Index;
+import org.projectsforge.xwiki.booktools.mapping.LocalIndex;
+import org.projectsforge.xwiki.booktools.service.BookToolsService;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * An EventListener used to monitor document creation, deletion and update to
+ * maintain the index registry when an index object is added or removed and the
+ * citation registry when the keys of an index or of a local index change (the
+ * snapshot and the rendered bibliographies of a removed index are dropped).
+ *
+ * @see IndexRegistry
+ * @see CitationRegistry
+ */
+@Component
+@Singleton
+@Named("IndexRegistryListener")
+public class IndexRegistryListener implements EventListener {
+
+  /** The rendered bibliography cache. */
+  @Inject
+  private BibliographyCache bibliographyCache;
+
+  /** The rendered citation cache. */
+  @Inject
+  private CitationCache citationCache;
+
+  /** The citation registry. */
+  @Inject
+  private CitationRegistry citationRegistry;
+
+  /** The index registry. */
+  @Inject
+  private IndexRegistry indexRegistry;
+
+  /** The index snapshot cache. */
+  @Inject
+  private IndexSnapshotCache indexSnapshotCache;
+
+  /** The service. */
+  @Inject
+  private BookToolsService service;
+
+  /**
+   * Checks if a document held an object before the change (most of the
+   * documents hold neither an index nor a local index : nothing has to be
+   * removed for them).
+   *
+   * @param document
+   *          the document
+   * @param classReference
+   *          the class reference of the object
+   * @return true, if the document held an object of the class
+   */
+  private static boolean hadXObject(XWikiDocument document, EntityReference classReference) {
+    XWikiDocument originalDocument = document.getOriginalDocument();
+    return originalDocument != null && originalDocument.getXObject(classReference) != null;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.xwiki.observation.EventListener#getEvents()
+   */
+  @Override
+  public List<Event> getEvents() {
+    return Arrays.<Event> asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(), new DocumentDeletedEvent());
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.xwiki.observation.EventListener#getName()
+   */
+  @Override
+  public String getName() {
+    return IndexRegistryListener.class.getName();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.xwiki.observation.EventListener#onEvent(org.xwiki.observation.event.
+   * Event, java.lang.Object, java.lang.Object)
+   */
+  @Override
+  public void onEvent(Event event, Object sourceDocument, Object sourceContext) {
+    XWikiDocument document = (XWikiDocument) sourceDocument;
+    BaseObject xobject = event instanceof DocumentDeletedEvent ? null : document.getXObject(Index.CLASS_REFERENCE);
+    if (xobject != null) {
+      indexRegistry.add(document.getDocumentReference());
+      // the keys are decoded only when they changed
+      String keys = xobject.getLargeStringValue(Index.FIELD_KEYS);
+      XWikiDocument originalDocument = document.getOriginalDocument();
+      BaseObject originalXObject = originalDocument == null ? null
+          : originalDocument.getXObject(Index.CLASS_REFERENCE);
+      if (originalXObject == null || !StringUtils.equals(keys, originalXObject.getLargeStringValue(Index.FIELD_KEYS))) {
+        citationRegistry.update(document.getDocumentReference(), EncodedEntries.decodeKeys(service, keys));
+      }
+    } else if (hadXObject(document, Index.CLASS_REFERENCE)) {
+      // the document held an index before the change : the scans of the
+      // rendering caches are only done for it
+      indexRegistry.remove(document.getDocumentReference());
+      citationRegistry.remove(document.getDocumentReference());
+      indexSnapshotCache.invalidate(document.getDocumentReference());
+      bibliographyCache.invalidate(document.getDocumentReference());
+      citationCache.invalidate(document.getDocumentReference());
+    }
+
+    // the keys cited by the page
+    BaseObject localIndexXObject = event instanceof DocumentDeletedEvent ? null
+        : document.getXObject(LocalIndex.CLASS_REFERENCE);
+    if (localIndexXObject != null) {
+      String keys = localIndexXObject.getLargeStringValue(LocalIndex.FIELD_KEYS);
+      XWikiDocument originalDocument = document.getOriginalDocument();
+      BaseObject originalXObject = originalDocument == null ? null
+          : originalDocument.getXObject(LocalIndex.CLASS_REFERENCE);
+      if (originalXObject == null
+          || !StringUtils.equals(keys, originalXObject.getLargeStringValue(LocalIndex.FIELD_KEYS))) {
+        citationRegistry.updatePage(document.getDocumentReference(), Utils.deserializeKeys(service, keys));
+      }
+    } else if (hadXObject(document, LocalIndex.CLASS_REFERENCE)) {
+      // the page cited keys before the change
+      citationRegistry.removePage(document.getDocumentReference());
+    }
+  }
+
+}
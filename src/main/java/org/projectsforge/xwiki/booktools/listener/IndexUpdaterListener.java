@@ -1,27 +1,38 @@
 package org.projectsforge.xwiki.booktools.listener;
 
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.StringUtils;
+import org.projectsforge.xwiki.booktools.cache.CitationRegistry;
+import org.projectsforge.xwiki.booktools.job.IndexRebuildQueue;
 import org.projectsforge.xwiki.booktools.mapping.DocumentWalker.Node;
+import org.projectsforge.xwiki.booktools.mapping.Entry;
 import org.projectsforge.xwiki.booktools.mapping.Index;
+import org.projectsforge.xwiki.booktools.mapping.LocalIndex;
+import org.projectsforge.xwiki.booktools.mapping.Order;
 import org.projectsforge.xwiki.booktools.service.BookToolsService;
 import org.xwiki.bridge.event.DocumentCreatedEvent;
 import org.xwiki.bridge.event.DocumentDeletedEvent;
 import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.observation.EventListener;
 import org.xwiki.observation.event.Event;
 
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
 
 /**
  * An EventListener used to monitor document creation, deletion and update to
- * trigger update on the index.
+ * trigger update on the index and to expire the indexes citing a changed entry.
  *
  * @see IndexUpdaterEvent
  */
@@ -30,10 +41,64 @@ import com.xpn.xwiki.doc.XWikiDocument;
 @Named("IndexUpdaterListener")
 public class IndexUpdaterListener implements EventListener {
 
+  /** The citation registry. */
+  @Inject
+  private CitationRegistry citationRegistry;
+
+  /** The index rebuild queue. */
+  @Inject
+  private IndexRebuildQueue rebuildQueue;
+
   /** The booktools service. */
   @Inject
   private BookToolsService service;
 
+  /**
+   * Schedule the rebuild of the indexes citing an entry when the entry is
+   * created, changed or deleted (the indexes citing its previous key too when
+   * the key changed).
+   *
+   * @param document
+   *          the document
+   */
+  private void expireCitingIndexes(XWikiDocument document) {
+    XWikiDocument originalDocument = document.getOriginalDocument();
+    String oldKey = Entry.getKey(originalDocument);
+    String newKey = Entry.getKey(document);
+    if (oldKey == null && newKey == null) {
+      return;
+    }
+    if (StringUtils.equals(oldKey, newKey) && StringUtils.equals(getCSLItemData(originalDocument),
+        getCSLItemData(document))) {
+      // the entry did not change
+      return;
+    }
+
+    Set<DocumentReference> indexes = new HashSet<>();
+    if (oldKey != null) {
+      indexes.addAll(citationRegistry.getCitingIndexes(oldKey));
+    }
+    if (newKey != null) {
+      indexes.addAll(citationRegistry.getCitingIndexes(newKey));
+    }
+    for (DocumentReference index : indexes) {
+      rebuildQueue.schedule(index);
+    }
+  }
+
+  /**
+   * Gets the serialized CSL item data of the entry held by a document.
+   *
+   * @param document
+   *          the document
+   * @return the serialized CSL item data or null if the document does not hold
+   *         an entry
+   */
+  private String getCSLItemData(XWikiDocument document) {
+    BaseObject xobject = document == null ? null : document.getXObject(Entry.CLASS_REFERENCE);
+    return xobject == null ? null : xobject.getLargeStringValue(Entry.FIELD_CSL_ITEM_DATA);
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -54,6 +119,22 @@ public class IndexUpdaterListener implements EventListener {
     return IndexUpdaterListener.class.getName();
   }
 
+  /**
+   * Checks if a document has been reordered or re-parented by an update.
+   *
+   * @param document
+   *          the document
+   * @return true, if the order or the parent of the document changed
+   */
+  private boolean isMoved(XWikiDocument document) {
+    XWikiDocument originalDocument = document.getOriginalDocument();
+    if (originalDocument == null) {
+      return true;
+    }
+    return Order.getOrder(originalDocument) != Order.getOrder(document)
+        || !Objects.equals(originalDocument.getParentReference(), document.getParentReference());
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -66,17 +147,44 @@ public class IndexUpdaterListener implements EventListener {
     // this method is called before the document is saved to the database
     XWikiDocument document = (XWikiDocument) sourceDocument;
 
+    expireCitingIndexes(document);
+
     Node node = service.getDocumentWalker().wrapNode(document);
-    Node rootNode = node.getRootNode();
 
-    if (rootNode.isIndex() && !node.isIndex()) {
+    if (node.isIndex()) {
+      // the index itself has been saved : rebuild it unless it is saved by
+      // BookTools (its content is then up to date)
+      if (!Index.isInternalSave(service.getContext(), node.getDocumentReference())) {
+        rebuildQueue.schedule(node.getDocumentReference());
+      }
+      return;
+    }
+
+    Node rootNode = node.getRootNode();
+    if (rootNode.isIndex()) {
       // a document with an associated index but not holding the index itself
       // has been found
-      // we need to expire the index and save the change.
-      // on save, the index will be updated.
+      List<String> oldKeys = LocalIndex.getKeys(service, document.getOriginalDocument());
+      boolean oldBibliographyPage = LocalIndex.isBibliographyPage(document.getOriginalDocument());
+      List<String> newKeys = LocalIndex.getKeys(service, document);
+      boolean newBibliographyPage = LocalIndex.isBibliographyPage(document);
+
+      boolean citationsChanged = !oldKeys.equals(newKeys) || oldBibliographyPage != newBibliographyPage;
+      boolean orderChanged = !(event instanceof DocumentUpdatedEvent) || isMoved(document);
+
+      if (!citationsChanged && !orderChanged) {
+        // neither the citations of the page nor the book order changed
+        return;
+      }
+
       Index index = rootNode.wrapAsIndex();
-      index.setExpired(true);
-      index.getNode().save();
+      if (orderChanged || !index.updateAndSave(node, oldKeys, oldBibliographyPage, newKeys, newBibliographyPage)) {
+        // the page has been created, deleted, reordered or re-parented (the book
+        // order may have changed) or the change can not be applied
+        // incrementally : the index is rebuilt in background, meanwhile it
+        // keeps its previous content
+        rebuildQueue.schedule(rootNode.getDocumentReference());
+      }
     }
   }
 
@@ -0,0 +1,79 @@
+package org.projectsforge.xwiki.booktools.listener;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.projectsforge.xwiki.booktools.cache.NodeCache;
+import org.projectsforge.xwiki.booktools.service.BookToolsService;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * An EventListener used to monitor document creation, deletion and update to
+ * invalidate the shared node cache.
+ *
+ * @see NodeCache
+ */
+@Component
+@Singleton
+@Named("NodeCacheInvalidationListener")
+public class NodeCacheInvalidationListener implements EventListener {
+
+  /** The node cache. */
+  @Inject
+  private NodeCache nodeCache;
+
+  /** The service. */
+  @Inject
+  private BookToolsService service;
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.xwiki.observation.EventListener#getEvents()
+   */
+  @Override
+  public List<Event> getEvents() {
+    return Arrays.<Event> asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(), new DocumentDeletedEvent());
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.xwiki.observation.EventListener#getName()
+   */
+  @Override
+  public String getName() {
+    return NodeCacheInvalidationListener.class.getName();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.xwiki.observation.EventListener#onEvent(org.xwiki.observation.event.
+   * Event, java.lang.Object, java.lang.Object)
+   */
+  @Override
+  public void onEvent(Event event, Object sourceDocument, Object sourceContext) {
+    XWikiDocument document = (XWikiDocument) sourceDocument;
+    // the nodes of the current request must be reloaded too
+    service.getDocumentWalker().invalidate(document.getDocumentReference());
+    if (event instanceof DocumentUpdatedEvent) {
+      nodeCache.invalidate(document.getDocumentReference());
+    } else {
+      nodeCache.invalidateHierarchy(document.getDocumentReference());
+    }
+  }
+
+}
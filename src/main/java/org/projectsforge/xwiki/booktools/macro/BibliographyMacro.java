@@ -5,6 +5,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.StringJoiner;
 
@@ -14,12 +15,17 @@ import javax.inject.Provider;
 
 import org.apache.commons.lang3.StringUtils;
 import org.projectsforge.xwiki.booktools.Constants;
+import org.projectsforge.xwiki.booktools.cache.RenderedBibliography;
+import org.projectsforge.xwiki.booktools.job.IndexRebuildQueue;
+import org.projectsforge.xwiki.booktools.job.LocalIndexReconciler;
 import org.projectsforge.xwiki.booktools.mapping.DocumentWalker.Node;
 import org.projectsforge.xwiki.booktools.mapping.Index;
+import org.projectsforge.xwiki.booktools.mapping.IndexSnapshot;
 import org.projectsforge.xwiki.booktools.mapping.LocalIndex;
 import org.projectsforge.xwiki.booktools.service.BookToolsService;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.rendering.block.Block;
 import org.xwiki.rendering.block.MacroMarkerBlock;
 import org.xwiki.rendering.block.XDOM;
@@ -34,12 +40,6 @@ import org.xwiki.rendering.transformation.MacroTransformationContext;
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.doc.XWikiDocument;
 
-import de.undercouch.citeproc.CSL;
-import de.undercouch.citeproc.csl.CSLCitation;
-import de.undercouch.citeproc.csl.CSLCitationItem;
-import de.undercouch.citeproc.output.Bibliography;
-import de.undercouch.citeproc.output.Citation;
-
 /**
  * The Class BibliographyMacro.
  */
@@ -59,6 +59,10 @@ public class BibliographyMacro extends AbstractMacro<BibliographyMacroParameters
   /** The Constant WYSIWYG_NAME. */
   public static final String WYSIWYG_NAME = "Print the bibliography";
 
+  /** The local index reconciler. */
+  @Inject
+  private LocalIndexReconciler localIndexReconciler;
+
   /** The logger. */
   @Inject
   private Logger logger;
@@ -67,6 +71,10 @@ public class BibliographyMacro extends AbstractMacro<BibliographyMacroParameters
   @Inject
   private MacroContentParser macroContentParser;
 
+  /** The index rebuild queue. */
+  @Inject
+  private IndexRebuildQueue rebuildQueue;
+
   /** The service. */
   @Inject
   private BookToolsService service;
@@ -134,7 +142,7 @@ public class BibliographyMacro extends AbstractMacro<BibliographyMacroParameters
       it.remove();
     }
 
-    /**** UPDATE LOCAL INDEX ****/
+    /**** CHECK LOCAL INDEX ****/
 
     Node node = service.getDocumentWalker().wrapNode(document);
 
@@ -144,7 +152,7 @@ public class BibliographyMacro extends AbstractMacro<BibliographyMacroParameters
     // load local index
     LocalIndex localIndex = node.wrapAsLocalIndex(index);
 
-    // decode and save local keys
+    // decode local keys
     localIndex.setKeys(CiteKey.decodeUniqueKeys(allKeys.toString()));
 
     scope = Scope.toScope(parameters.getScope());
@@ -161,12 +169,13 @@ public class BibliographyMacro extends AbstractMacro<BibliographyMacroParameters
     }
     localIndex.setIsBookToolsPage(scope == Scope.CITED);
 
-    // save changes if necessary, through listeners, it will trigger an update
-    // of the index
-    localIndex.save();
-
-    /**** RELOAD INDEX (to get the last updates) ****/
-    index = service.getDocumentWalker().wrapNode(document).getRootNode().wrapIfIndex();
+    // nothing is written during the rendering : the local index is saved in
+    // background if it changed (through listeners, it will trigger an update
+    // of the index), meanwhile the index keeps its previous content
+    if (localIndex.isDirty() && !"preview".equals(context.getAction())) {
+      localIndexReconciler.schedule(document.getDocumentReference(), localIndex.getKeys(),
+          localIndex.getIsBibliographyPage());
+    }
 
     /**** GENERATE CONTENT ****/
     List<Block> results;
@@ -174,29 +183,47 @@ public class BibliographyMacro extends AbstractMacro<BibliographyMacroParameters
     if (index == null) {
       results = Collections.singletonList(parseContent("**Missing bibliography index.**", false));
     } else {
-      // update and save index if necessary
-      index.update();
-      index.getNode().save();
+      // the expired index is rebuilt in background
+      if (index.isExpired()) {
+        rebuildQueue.schedule(index.getNode().getDocumentReference());
+      }
+
+      // the published content of the index
+      IndexSnapshot snapshot = index.getSnapshot();
 
-      // generate bibliography with all keys
-      CSL csl = service.getCSL(index);
-      Bibliography bibliography = csl.makeBibliography();
+      // generate bibliography with all keys (rendered once per index content)
+      RenderedBibliography bibliography = service.getBibliography(index);
 
-      // handle cite macro
+      // handle cite macro : the visible citations are rendered at once (they
+      // are cached with the index content)
+      List<MacroMarkerBlock> visibleCites = new ArrayList<>();
+      List<List<CiteKey>> citations = new ArrayList<>();
       for (MacroMarkerBlock cite : cites) {
-        cite.getParent().replaceChild(makeCiteBlocks(index, csl, scope, cite), cite);
+        if (isVisible(cite)) {
+          visibleCites.add(cite);
+          citations.add(CiteKey.decode(cite.getParameter(CiteMacroParameters.PARAM_KEYS)));
+        } else {
+          // remove cite block since it is hidden
+          cite.getParent().replaceChild(Collections.<Block> emptyList(), cite);
+        }
+      }
+      List<List<String>> citationTexts = citations.isEmpty() ? Collections.emptyList()
+          : service.getCitations(index, citations);
+      for (int i = 0; i < visibleCites.size(); ++i) {
+        MacroMarkerBlock cite = visibleCites.get(i);
+        cite.getParent().replaceChild(makeCiteBlocks(snapshot, scope, citationTexts.get(i)), cite);
       }
 
       // handle bibliography
       switch (scope) {
         case CITED:
-          results = makeBookToolsBlocks(index, bibliography, index.getKeys(), scope);
+          results = makeBookToolsBlocks(index, snapshot, bibliography, snapshot.getKeys(), scope);
           break;
         case HIDDEN:
           results = Collections.<Block> emptyList();
           break;
         case PAGE:
-          results = makeBookToolsBlocks(index, bibliography, localIndex.getKeys(), scope);
+          results = makeBookToolsBlocks(index, snapshot, bibliography, localIndex.getKeys(), scope);
           break;
         default:
           results = Collections
@@ -207,11 +234,29 @@ public class BibliographyMacro extends AbstractMacro<BibliographyMacroParameters
     return results;
   }
 
+  /**
+   * Checks if a cite macro is visible.
+   *
+   * @param cite
+   *          the cite
+   * @return true, if the cite macro is not hidden
+   */
+  private boolean isVisible(MacroMarkerBlock cite) {
+    // extract hidden parameter
+    String hiddenParameter = cite.getParameter(CiteMacroParameters.PARAM_HIDDEN);
+    if (hiddenParameter == null) {
+      return !CiteMacroParameters.HIDDEN_DEFAULT;
+    }
+    return !Boolean.parseBoolean(hiddenParameter);
+  }
+
   /**
    * Make bibliography blocks.
    *
    * @param index
    *          the index
+   * @param snapshot
+   *          the snapshot of the index
    * @param bibliography
    *          the bibliography
    * @param citedKeys
@@ -222,12 +267,12 @@ public class BibliographyMacro extends AbstractMacro<BibliographyMacroParameters
    * @throws MacroExecutionException
    *           the macro execution exception
    */
-  private List<Block> makeBookToolsBlocks(Index index, Bibliography bibliography, List<String> citedKeys, Scope scope)
-      throws MacroExecutionException {
+  private List<Block> makeBookToolsBlocks(Index index, IndexSnapshot snapshot, RenderedBibliography bibliography,
+      List<String> citedKeys, Scope scope) throws MacroExecutionException {
     Set<String> lookup = new HashSet<>(citedKeys);
 
-    String[] entryIds = bibliography.getEntryIds();
-    String[] entries = bibliography.getEntries();
+    List<String> entryIds = bibliography.getEntryIds();
+    List<String> entries = bibliography.getEntries();
 
     StringBuilder builder = new StringBuilder();
     if (scope == Scope.PAGE) {
@@ -236,12 +281,26 @@ public class BibliographyMacro extends AbstractMacro<BibliographyMacroParameters
     if (bibliography.getBibStart() != null) {
       builder.append(bibliography.getBibStart());
     }
-    if (entries != null) {
-      for (int i = 0; i < entryIds.length; ++i) {
-        if (lookup.contains(entryIds[i])) {
-          String content = entries[i];
-          content = content.replaceAll(Constants.ENTRY_TARGET_MARK,
-              service.findEntry(index, entryIds[i]).getNode().getDocumentReference().toString());
+    if (!entries.isEmpty()) {
+      // the references are stored in the snapshot, the missing ones (previous
+      // encoding of the index) are resolved at once
+      List<String> unresolvedIds = new ArrayList<>();
+      for (String entryId : entryIds) {
+        if (lookup.contains(entryId) && snapshot.getReference(entryId) == null) {
+          unresolvedIds.add(entryId);
+        }
+      }
+      Map<String, DocumentReference> references = unresolvedIds.isEmpty() ? Collections.emptyMap()
+          : service.findEntryReferences(index, unresolvedIds);
+      for (int i = 0; i < entryIds.size(); ++i) {
+        String entryId = entryIds.get(i);
+        if (lookup.contains(entryId)) {
+          DocumentReference reference = snapshot.getReference(entryId);
+          if (reference == null) {
+            reference = references.get(entryId);
+          }
+          String content = entries.get(i);
+          content = content.replaceAll(Constants.ENTRY_TARGET_MARK, reference == null ? "" : reference.toString());
           builder.append(content);
         }
       }
@@ -256,62 +315,29 @@ public class BibliographyMacro extends AbstractMacro<BibliographyMacroParameters
   /**
    * Make cite blocks.
    *
-   * @param index
-   *          the index
-   * @param csl
-   *          the csl
+   * @param snapshot
+   *          the snapshot of the index
    * @param scope
    *          the scope
-   * @param cite
-   *          the cite
+   * @param texts
+   *          the rendered texts of the citation
    * @return the list
    * @throws MacroExecutionException
    *           the macro execution exception
    */
-  private List<Block> makeCiteBlocks(Index index, CSL csl, Scope scope, MacroMarkerBlock cite)
+  private List<Block> makeCiteBlocks(IndexSnapshot snapshot, Scope scope, List<String> texts)
       throws MacroExecutionException {
-
-    // extract hidden parameter
-    boolean hidden;
-    String hiddenParameter = cite.getParameter(CiteMacroParameters.PARAM_HIDDEN);
-    if (hiddenParameter == null) {
-      hidden = CiteMacroParameters.HIDDEN_DEFAULT;
-    } else {
-      hidden = Boolean.parseBoolean(hiddenParameter);
-    }
-
-    if (hidden) {
-      // remove cite block since it is hidden
-      return Collections.<Block> emptyList();
-    }
-
-    List<CSLCitationItem> citationItems = new ArrayList<>();
-    for (CiteKey ck : CiteKey.decode(cite.getParameter(CiteMacroParameters.PARAM_KEYS))) {
-      citationItems.add(new CSLCitationItem(ck.getKey(), null, null, null, ck.getLocator(), null, null, null, null,
-          null, null, null, null));
-    }
-
-    // handle empty keys
-    if (citationItems.isEmpty()) {
-      // remove cite block since it is empty
-      return Collections.<Block> emptyList();
-    }
-
+    // an empty citation is removed
     List<Block> results = new ArrayList<>();
-    try {
-      for (Citation citation : csl.makeCitation(new CSLCitation(citationItems.toArray(new CSLCitationItem[0])))) {
-        String text = citation.getText();
-        if (scope == Scope.PAGE) {
-          // link to current page
-          text = text.replaceAll(Constants.CITE_TARGET_MARK, "");
-        } else {
-          // link to bibliography page
-          text = text.replaceAll(Constants.CITE_TARGET_MARK, index.getBibliographyPage());
-        }
-        results.add(parseContent(text, true));
+    for (String text : texts) {
+      if (scope == Scope.PAGE) {
+        // link to current page
+        text = text.replaceAll(Constants.CITE_TARGET_MARK, "");
+      } else {
+        // link to bibliography page
+        text = text.replaceAll(Constants.CITE_TARGET_MARK, snapshot.getBibliographyPage());
       }
-    } catch (IllegalArgumentException ex) {
-      logger.warn("Could not make citations for " + cite.getParameter(CiteMacroParameters.PARAM_KEYS), ex);
+      results.add(parseContent(text, true));
     }
     return results;
   }
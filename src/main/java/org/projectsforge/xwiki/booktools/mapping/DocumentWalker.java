@@ -1,13 +1,20 @@
 package org.projectsforge.xwiki.booktools.mapping;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.projectsforge.xwiki.booktools.Error;
 import org.projectsforge.xwiki.booktools.Utils;
+import org.projectsforge.xwiki.booktools.cache.IndexRegistry;
+import org.projectsforge.xwiki.booktools.cache.NodeCache;
 import org.projectsforge.xwiki.booktools.service.BookToolsService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,6 +23,7 @@ import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryManager;
@@ -31,6 +39,16 @@ import com.xpn.xwiki.objects.BaseObject;
 
 /**
  * The Class DocumentWalker.
+ * <p>
+ * Thread-safety contract : a walker can be shared by several threads (for
+ * instance the workers of a job created with
+ * {@link BookToolsService#createDocumentWalker()}) as long as each thread holds
+ * an XWiki context. The nodes, the lazily computed data of the nodes (children,
+ * description, order, document) and the caches of the walker are safely
+ * published, a lazily computed value may be computed twice but every thread
+ * sees a complete value and a document is loaded only once by node. The
+ * mutations of a node (objects, order, save, move) are not synchronized : a
+ * given node must be mutated by a single thread at a time.
  */
 public class DocumentWalker {
 
@@ -39,17 +57,32 @@ public class DocumentWalker {
    */
   public class Node implements Comparable<Node> {
 
-    /** The children. */
-    private List<Node> children;
+    /** The root of the book holding the node (resolved once). */
+    private volatile Node bookRoot;
+
+    /** The children (hidden documents excluded). */
+    private volatile List<Node> children;
+
+    /** The children (hidden documents included). */
+    private volatile List<Node> childrenWithHidden;
 
     /** The document. */
-    private XWikiDocument document;
+    private volatile XWikiDocument document;
 
     /** The document reference. */
-    private DocumentReference documentReference;
+    private volatile DocumentReference documentReference;
+
+    /** The lightweight description used while the document is not loaded. */
+    private volatile NodeInfo info;
 
     /** The order. */
-    private Integer order;
+    private volatile Integer order;
+
+    /**
+     * True if the document has been provided by the caller (it may not be saved
+     * yet) so that it must not be used to fill the shared cache.
+     */
+    private boolean wrapped;
 
     /**
      * Instantiates a new node.
@@ -70,6 +103,7 @@ public class DocumentWalker {
     Node(XWikiDocument document) {
       this.documentReference = document.getDocumentReference();
       this.document = document;
+      this.wrapped = true;
     }
 
     /**
@@ -78,7 +112,7 @@ public class DocumentWalker {
      * @return true, if successful
      */
     public boolean canDelete() {
-      return authorizationManager.hasAccess(Right.DELETE, service.getContext().getUserReference(), documentReference);
+      return hasAccess(Right.DELETE, documentReference);
     }
 
     /**
@@ -87,7 +121,7 @@ public class DocumentWalker {
      * @return true, if successful
      */
     public boolean canEdit() {
-      return authorizationManager.hasAccess(Right.EDIT, service.getContext().getUserReference(), documentReference);
+      return hasAccess(Right.EDIT, documentReference);
     }
 
     /**
@@ -96,7 +130,7 @@ public class DocumentWalker {
      * @return true, if successful
      */
     public boolean canView() {
-      return authorizationManager.hasAccess(Right.VIEW, service.getContext().getUserReference(), documentReference);
+      return hasAccess(Right.VIEW, documentReference);
     }
 
     /*
@@ -149,6 +183,16 @@ public class DocumentWalker {
       return getChildren(false);
     }
 
+    /**
+     * Gets the children the current user can view (the rights are evaluated in
+     * batch, see {@link DocumentWalker#filterVisible(List)}).
+     *
+     * @return the visible children
+     */
+    public List<Node> getVisibleChildren() {
+      return filterVisible(getChildren());
+    }
+
     /**
      * Gets the children.
      *
@@ -157,50 +201,38 @@ public class DocumentWalker {
      * @return the children
      */
     public List<Node> getChildren(boolean includeHidden) {
-      if (children == null) {
+      List<Node> results = includeHidden ? childrenWithHidden : children;
+      if (results == null) {
         if ("WebHome".equals(getDocumentReference().getName())) {
-          XWikiContext context = service.getContext();
-
-          List<String> results = new ArrayList<>();
-
-          String spaceName = Utils.LOCAL_REFERENCE_SERIALIZER.serialize(getDocumentReference().getLastSpaceReference());
-
-          try {
-            // the children which are not nested spaces
-            results.addAll(queryManager
-                .createQuery(
-                    "select distinct doc.fullName from Document doc where doc.name <> 'WebHome' and doc.space = :space and doc.hidden = :hidden",
-                    Query.XWQL)
-                .bindValue("space", spaceName).bindValue("hidden", includeHidden).setWiki(context.getWikiId())
-                .execute());
-            // the children which are nested spaces
-            for (String space : queryManager
-                .createQuery(
-                    "select distinct space.reference from Space space where space.parent = :space and space.hidden = :hidden",
-                    Query.XWQL)
-                .bindValue("space", spaceName).bindValue("hidden", includeHidden).setWiki(context.getWikiId())
-                .<String> execute()) {
-              results.add(space + ".WebHome");
+          List<DocumentReference> references = nodeCache.getChildren(documentReference, includeHidden);
+          results = new ArrayList<>();
+          if (references == null) {
+            for (DocumentReference childRef : queryChildren(includeHidden)) {
+              results.add(getNode(childRef));
             }
-          } catch (QueryException ex) {
-            logger.warn("An error occurred while querying children of " + documentReference, ex);
-          }
-
-          children = new ArrayList<>();
-          for (String result : results) {
-            DocumentReference childRef = documentReferenceResolver.resolve(result, context.getWikiReference());
-            if (!getDocumentReference().equals(childRef)) {
-              children.add(getNode(childRef));
+            // the sort uses the orders => fetch them at once
+            loadInfos(results);
+            Collections.sort(results);
+
+            // share the sorted children with the next requests
+            nodeCache.setChildren(documentReference, includeHidden, toReferences(results));
+          } else {
+            for (DocumentReference childRef : references) {
+              results.add(getNode(childRef));
             }
           }
-          Collections.sort(children);
         } else {
           // we are not the space WebHome => we dont have children
-          children = Collections.emptyList();
+          results = Collections.emptyList();
+        }
+        results = Collections.unmodifiableList(results);
+        if (includeHidden) {
+          childrenWithHidden = results;
+        } else {
+          children = results;
         }
-        children = Collections.unmodifiableList(children);
       }
-      return children;
+      return results;
     }
 
     /**
@@ -221,31 +253,99 @@ public class DocumentWalker {
       return documentReference;
     }
 
+    /**
+     * Gets the depth in the book (0 for the root of the book).
+     *
+     * @return the depth
+     */
+    public int getDepth() {
+      NavigationTable table = getNavigationTable();
+      if (table != null && table.contains(documentReference)) {
+        return table.getDepth(documentReference);
+      }
+      return getNodesToRoot().size() - 1;
+    }
+
+    /**
+     * Gets the navigation table of the book containing the node.
+     *
+     * @return the navigation table or null if the node does not belong to a
+     *         book
+     */
+    public NavigationTable getNavigationTable() {
+      Node root = bookRoot;
+      if (root == null) {
+        root = getRootNode();
+        bookRoot = root;
+      }
+      if (root.isIndex()) {
+        return DocumentWalker.this.getNavigationTable(root);
+      }
+      return null;
+    }
+
+    /**
+     * Gets the lightweight description of the document. It is queried (without
+     * loading the document) if the document is not loaded yet.
+     *
+     * @return the description or null if the document is loaded or if the
+     *         description can not be queried
+     */
+    public NodeInfo getInfo() {
+      if (info == null && document == null) {
+        loadInfos(Collections.singletonList(this));
+      }
+      return document == null ? info : null;
+    }
+
     /**
      * Gets the next.
      *
      * @return the next
      */
     public Node getNext() {
+      NavigationTable table = getNavigationTable();
+      if (table != null && table.contains(documentReference)) {
+        DocumentReference next = table.getNext(documentReference);
+        if (next != null) {
+          return getNode(next);
+        }
+        // last page of the book => continue after the root of the book
+        return getNode(table.getRoot()).getNextAfter();
+      }
       if (getChildren().isEmpty()) {
         // no children => get next sibling
-        Node current = this;
-        Node result = null;
-        while (current.getParent() != null && (result = current.getNextSibling()) == null) {
-          current = current.getParent();
-        }
-        return result;
+        return getNextAfter();
       } else {
         return getChildren().get(0);
       }
     }
 
+    /**
+     * Gets the next sibling of the nearest ancestor (the node included) having
+     * one.
+     *
+     * @return the node following the subtree of this node
+     */
+    private Node getNextAfter() {
+      Node current = this;
+      Node result = null;
+      while (current.getParent() != null && (result = current.getNextSibling()) == null) {
+        current = current.getParent();
+      }
+      return result;
+    }
+
     /**
      * Gets the next sibling.
      *
      * @return the next sibling
      */
     public Node getNextSibling() {
+      NavigationTable table = getNavigationTable();
+      if (table != null && table.contains(documentReference) && !table.getRoot().equals(documentReference)) {
+        return getNode(table.getNextSibling(documentReference));
+      }
       if (getParent() != null) {
         List<Node> siblings = getParent().getChildren();
         for (int i = 0; i < siblings.size(); ++i) {
@@ -287,7 +387,18 @@ public class DocumentWalker {
      */
     public Integer getOrder() {
       if (order == null) {
-        order = new Order(this).getOrder();
+        if (document == null) {
+          order = nodeCache.getOrder(documentReference);
+          if (order == null && getInfo() != null) {
+            order = info.getOrder();
+          }
+        }
+        if (order == null) {
+          order = new Order(this).getOrder();
+          if (!wrapped) {
+            nodeCache.setOrder(documentReference, order);
+          }
+        }
       }
       return order;
     }
@@ -298,16 +409,8 @@ public class DocumentWalker {
      * @return the parent
      */
     public Node getParent() {
-      SpaceReference spaceReference = getDocumentReference().getLastSpaceReference();
-      EntityReference parentSpace = spaceReference.getParent();
-      if (parentSpace != null && parentSpace.getType() == EntityType.SPACE) {
-        DocumentReference parentRef = new DocumentReference(
-            new EntityReference("WebHome", EntityType.DOCUMENT, parentSpace));
-        return getNode(parentRef);
-      } else {
-        // there is no parent space
-        return null;
-      }
+      // null if there is no parent space
+      return getNode(getParentReference(getDocumentReference()));
     }
 
     /**
@@ -316,6 +419,11 @@ public class DocumentWalker {
      * @return the previous
      */
     public Node getPrevious() {
+      NavigationTable table = getNavigationTable();
+      if (table != null && table.contains(documentReference) && !table.getRoot().equals(documentReference)) {
+        DocumentReference previous = table.getPreviousSibling(documentReference);
+        return getNode(previous != null ? previous : table.getParent(documentReference));
+      }
       if (getParent() != null) {
         Node result = getPreviousSibling();
         if (result != null) {
@@ -333,6 +441,10 @@ public class DocumentWalker {
      * @return the previous sibling
      */
     public Node getPreviousSibling() {
+      NavigationTable table = getNavigationTable();
+      if (table != null && table.contains(documentReference) && !table.getRoot().equals(documentReference)) {
+        return getNode(table.getPreviousSibling(documentReference));
+      }
       if (getParent() != null) {
         List<Node> siblings = getParent().getChildren();
         for (int i = 0; i < siblings.size(); ++i) {
@@ -351,6 +463,27 @@ public class DocumentWalker {
      * @return the root node
      */
     public Node getRootNode() {
+      if (indexRegistry.getIndexes(documentReference.getWikiReference()) != null) {
+        // a wrapped document is checked directly (it may not be saved yet)
+        if (isIndex()) {
+          return this;
+        }
+        DocumentReference parentReference = getParentReference(documentReference);
+        if (parentReference == null) {
+          return this;
+        }
+        // prefix lookup in the index registry : no ancestor is loaded
+        DocumentReference indexReference = indexRegistry.getIndex(parentReference);
+        if (indexReference != null) {
+          return getNode(indexReference);
+        }
+        DocumentReference current = parentReference;
+        for (DocumentReference parent = getParentReference(current); parent != null; parent = getParentReference(
+            parent)) {
+          current = parent;
+        }
+        return getNode(current);
+      }
       List<Node> results = getNodesToRoot();
       return results.get(results.size() - 1);
     }
@@ -364,12 +497,24 @@ public class DocumentWalker {
       return service;
     }
 
+    /**
+     * Gets the walker which created this node.
+     *
+     * @return the walker
+     */
+    public DocumentWalker getWalker() {
+      return DocumentWalker.this;
+    }
+
     /**
      * Gets the title.
      *
      * @return the title
      */
     public String getTitle() {
+      if (document == null && getInfo() != null) {
+        return info.getTitle();
+      }
       return getXWikiDocument().getTitle();
     }
 
@@ -393,12 +538,7 @@ public class DocumentWalker {
      * @return the tree
      */
     public List<Node> getTree() {
-      List<Node> results = new ArrayList<>();
-      results.add(this);
-      for (Node child : getChildren()) {
-        results.addAll(child.getTree());
-      }
-      return results;
+      return traverse().toList();
     }
 
     /**
@@ -431,15 +571,24 @@ public class DocumentWalker {
      * @return the x wiki document
      */
     XWikiDocument getXWikiDocument() {
-      if (document == null) {
-        XWikiContext context = service.getContext();
-        try {
-          this.document = context.getWiki().getDocument(documentReference, context);
-        } catch (XWikiException ex) {
-          logger.warn("An error occurred while loading " + documentReference, ex);
+      XWikiDocument result = document;
+      if (result == null) {
+        // the document is loaded once so that all the threads mutate the same
+        // instance
+        synchronized (this) {
+          result = document;
+          if (result == null) {
+            XWikiContext context = service.getContext();
+            try {
+              result = context.getWiki().getDocument(documentReference, context);
+              this.document = result;
+            } catch (XWikiException ex) {
+              logger.warn("An error occurred while loading " + documentReference, ex);
+            }
+          }
         }
       }
-      return document;
+      return result;
     }
 
     /*
@@ -458,7 +607,119 @@ public class DocumentWalker {
      * @return true, if is index
      */
     public boolean isIndex() {
-      return getXWikiDocument().getXObject(Index.CLASS_REFERENCE) != null;
+      if (document == null) {
+        Set<DocumentReference> indexes = indexRegistry.getIndexes(documentReference.getWikiReference());
+        if (indexes != null) {
+          return indexes.contains(documentReference);
+        }
+        Boolean index = nodeCache.isIndex(documentReference);
+        if (index != null) {
+          return index;
+        }
+        if (info != null) {
+          return info.isIndex();
+        }
+      }
+      boolean index = getXWikiDocument().getXObject(Index.CLASS_REFERENCE) != null;
+      if (!wrapped) {
+        nodeCache.setIndex(documentReference, index);
+      }
+      return index;
+    }
+
+    /**
+     * Load the whole subtree at once if nothing is known about it (a deep
+     * traversal walks the children of many nodes).
+     */
+    void loadSubtreeIfUnknown() {
+      if (children == null && nodeCache.getChildren(documentReference, false) == null) {
+        loadSubtree(this);
+      }
+    }
+
+    /**
+     * Query the children references.
+     *
+     * @param includeHidden
+     *          include hidden document and space ?
+     * @return the children references
+     */
+    private List<DocumentReference> queryChildren(boolean includeHidden) {
+      // the wiki of the document, not the one of the context (a job runs in
+      // the main wiki)
+      WikiReference wikiReference = getDocumentReference().getWikiReference();
+
+      List<String> results = new ArrayList<>();
+
+      String spaceName = Utils.LOCAL_REFERENCE_SERIALIZER.serialize(getDocumentReference().getLastSpaceReference());
+
+      try {
+        // the children which are not nested spaces
+        Query documentQuery = queryManager.createQuery(
+            "select distinct doc.fullName from Document doc where doc.name <> 'WebHome' and doc.space = :space"
+                + (includeHidden ? "" : " and doc.hidden = :hidden"),
+            Query.XWQL).bindValue("space", spaceName).setWiki(wikiReference.getName());
+        // the children which are nested spaces
+        Query spaceQuery = queryManager.createQuery(
+            "select distinct space.reference from Space space where space.parent = :space"
+                + (includeHidden ? "" : " and space.hidden = :hidden"),
+            Query.XWQL).bindValue("space", spaceName).setWiki(wikiReference.getName());
+        if (!includeHidden) {
+          documentQuery.bindValue("hidden", false);
+          spaceQuery.bindValue("hidden", false);
+        }
+        results.addAll(documentQuery.<String> execute());
+        for (String space : spaceQuery.<String> execute()) {
+          results.add(space + ".WebHome");
+        }
+      } catch (QueryException ex) {
+        logger.warn("An error occurred while querying children of " + documentReference, ex);
+      }
+
+      List<DocumentReference> references = new ArrayList<>();
+      for (String result : results) {
+        DocumentReference childRef = documentReferenceResolver.resolve(result, wikiReference);
+        if (!getDocumentReference().equals(childRef)) {
+          references.add(childRef);
+        }
+      }
+      return references;
+    }
+
+    /**
+     * Checks if the document holds an entry.
+     *
+     * @return true, if the document holds an entry
+     */
+    public boolean isEntry() {
+      if (document == null && getInfo() != null) {
+        return info.isEntry();
+      }
+      return getXObject(Entry.CLASS_REFERENCE) != null;
+    }
+
+    /**
+     * Checks if the document is hidden.
+     *
+     * @return true, if the document is hidden
+     */
+    public boolean isHidden() {
+      if (document == null && getInfo() != null) {
+        return info.isHidden();
+      }
+      return Boolean.TRUE.equals(getXWikiDocument().isHidden());
+    }
+
+    /**
+     * Checks if the document holds a local index.
+     *
+     * @return true, if the document holds a local index
+     */
+    public boolean isLocalIndex() {
+      if (document == null && getInfo() != null) {
+        return info.isLocalIndex();
+      }
+      return getXObject(LocalIndex.CLASS_REFERENCE) != null;
     }
 
     /**
@@ -478,63 +739,10 @@ public class DocumentWalker {
      * @return true, if successful
      */
     public boolean moveAsChild(Node child) {
-      if (getChildren().contains(child)) {
-        return true;
-      }
-
-      if (!"WebHome".equals(getDocumentReference().getName())) {
-        // parent is not a space, we can not move page
-        return false;
-      }
-
-      if (getDocumentReference().equals(child.getDocumentReference())) {
-        return false;
-      }
-
-      DocumentReference newDocumentReference;
-
-      if ("WebHome".equals(child.getDocumentReference().getName())) {
-        // this reference : a.b.c.WebHome
-        // child reference e.f.WebHome => a.b.c.f.WebHome
-        newDocumentReference = new DocumentReference(new EntityReference("WebHome", EntityType.DOCUMENT,
-            new EntityReference(child.getDocumentReference().getParent().getName(), EntityType.SPACE,
-                getDocumentReference().getParent())));
-      } else {
-        // this reference : a.b.c.WebHome
-        // child reference : e.f => a.b.c.f
-        newDocumentReference = new DocumentReference(new EntityReference(child.getDocumentReference().getName(),
-            EntityType.DOCUMENT, getDocumentReference().getParent()));
-      }
-
-      if (child.canDelete() && authorizationManager.hasAccess(Right.EDIT, service.getContext().getUserReference(),
-          newDocumentReference)) {
-        try {
-          List<Node> oldChildren = child.getChildren();
-          child.getXWikiDocument().rename(newDocumentReference, service.getContext());
-          child.getXWikiDocument().setParentReference(getDocumentReference());
-          child.documentReference = newDocumentReference;
-          child.children = null;
-          child.save();
-
-          // purge nodes to force a clean reload of nodes
-          // TODO : do not systematically remove everything ?
-          nodes.clear();
-
-          // now move all old children as children of the new node
-          for (Node oldChild : oldChildren) {
-            getNode(newDocumentReference).moveAsChild(oldChild);
-          }
-        } catch (XWikiException ex) {
-          logger.warn("An error occurred while adding " + child.getDocumentReference() + " as child of "
-              + getDocumentReference(), ex);
-          return false;
-        }
-      } else {
-        return false;
-      }
-
+      boolean result = new SubtreeMove(this, Collections.singletonList(child), false).execute(null, null);
       children = null;
-      return true;
+      childrenWithHidden = null;
+      return result;
     }
 
     /**
@@ -584,24 +792,18 @@ public class DocumentWalker {
      *          the new children
      */
     public void setChildren(List<Node> newChildren) {
-      for (Node child : newChildren) {
-        moveAsChild(child);
-      }
-      List<Node> allChildren = getChildren();
-      for (Node node : allChildren) {
-        node.setOrder(Integer.MAX_VALUE);
-      }
-      int counter = 0;
-      for (Node node : newChildren) {
-        // ensure e have the last node instance due to moveAdChild which can
-        // have invalidated the document
-        getNode(node.getDocumentReference()).setOrder(counter++);
-      }
-      // save changes
-      for (Node node : allChildren) {
-        node.save();
+      // the children which are not listed are put after the listed ones (only
+      // the ones which are not already there are saved)
+      for (Node node : getChildren()) {
+        if (!newChildren.contains(node) && !Integer.valueOf(Integer.MAX_VALUE).equals(node.getOrder())) {
+          node.setOrder(Integer.MAX_VALUE);
+          node.save();
+        }
       }
+      // move and order the listed children : each page is saved once
+      new SubtreeMove(this, newChildren, true).execute(null, null);
       children = null;
+      childrenWithHidden = null;
     }
 
     /**
@@ -614,6 +816,8 @@ public class DocumentWalker {
       if (canEdit()) {
         new Order(this).setOrder(order);
         this.order = order;
+        // the parent children are sorted using the order
+        nodeCache.invalidate(documentReference);
       }
     }
 
@@ -627,6 +831,16 @@ public class DocumentWalker {
       return documentReference == null ? "null" : documentReference.toString();
     }
 
+    /**
+     * Gets a lazy depth-first traversal of the subtree of this node (this node
+     * included).
+     *
+     * @return the traversal
+     */
+    public TreeTraversal traverse() {
+      return new TreeTraversal(this);
+    }
+
     /**
      * Wrap as configuration.
      *
@@ -680,7 +894,7 @@ public class DocumentWalker {
      * @return the entry
      */
     public Entry wrapIfEntry() {
-      if (getXObject(Entry.CLASS_REFERENCE) != null) {
+      if (isEntry()) {
         return new Entry(this);
       } else {
         return null;
@@ -708,7 +922,7 @@ public class DocumentWalker {
      * @return the local index
      */
     public LocalIndex wrapIfLocalIndex(Index index) {
-      if (getXObject(LocalIndex.CLASS_REFERENCE) != null) {
+      if (isLocalIndex()) {
         return new LocalIndex(this, index);
       } else {
         return null;
@@ -730,14 +944,140 @@ public class DocumentWalker {
 
   }
 
+  /** The class of the document level rights. */
+  private static final String RIGHTS_CLASS = "XWiki.XWikiRights";
+
+  /** The maximum number of values bound to a single in clause. */
+  private static final int QUERY_CHUNK_SIZE = 500;
+
+  /**
+   * The query projecting the lightweight description of documents (title,
+   * hidden flag, order and the presence of the index, local index and entry
+   * objects).
+   */
+  private static final String INFO_QUERY = "select doc.fullName, doc.title, doc.hidden, "
+      + "(select max(prop.value) from BaseObject obj, IntegerProperty prop where obj.name = doc.fullName "
+      + "and obj.className = '" + Order.CLASS_REFERENCE_AS_STRING + "' and prop.id.id = obj.id "
+      + "and prop.id.name = 'order'), " + countObjects(Index.CLASS_REFERENCE_AS_STRING) + ", "
+      + countObjects(LocalIndex.CLASS_REFERENCE_AS_STRING) + ", " + countObjects(Entry.CLASS_REFERENCE_AS_STRING)
+      + " from XWikiDocument doc where doc.translation = 0 and ";
+
+  /** The description of a document which does not exist. */
+  private static final NodeInfo MISSING_DOCUMENT = new NodeInfo("", Integer.MAX_VALUE, false, false, false, false);
+
   /** The logger. */
   private static Logger logger = LoggerFactory.getLogger(DocumentWalker.class);
 
+  /**
+   * Build the sub query counting the objects of a class in a document.
+   *
+   * @param className
+   *          the class name
+   * @return the sub query
+   */
+  private static String countObjects(String className) {
+    return "(select count(obj.id) from BaseObject obj where obj.name = doc.fullName and obj.className = '"
+        + className + "')";
+  }
+
+  /**
+   * Escape the wildcards of a value matched with the like operator (with '!' as
+   * escape character).
+   *
+   * @param value
+   *          the value
+   * @return the escaped value
+   */
+  static String escapeLike(String value) {
+    return value.replace("!", "!!").replace("%", "!%").replace("_", "!_");
+  }
+
+  /**
+   * Gets the reference of the document listing the given document as a child
+   * (i.e. the WebHome of the space for a terminal document or the WebHome of
+   * the parent space for a space WebHome).
+   *
+   * @param documentReference
+   *          the document reference
+   * @return the parent reference or null if there is no parent
+   */
+  public static DocumentReference getParentReference(DocumentReference documentReference) {
+    SpaceReference spaceReference = documentReference.getLastSpaceReference();
+    if (!"WebHome".equals(documentReference.getName())) {
+      return new DocumentReference("WebHome", spaceReference);
+    }
+    EntityReference parentSpace = spaceReference.getParent();
+    if (parentSpace != null && parentSpace.getType() == EntityType.SPACE) {
+      return new DocumentReference(new EntityReference("WebHome", EntityType.DOCUMENT, parentSpace));
+    } else {
+      return null;
+    }
+  }
+
   /** The document reference resolver. */
   private DocumentReferenceResolver<String> documentReferenceResolver;
 
+  /**
+   * Checks if a reference is a descendant of another one.
+   *
+   * @param reference
+   *          the reference
+   * @param ancestor
+   *          the ancestor
+   * @return true, if the reference is a descendant of the ancestor
+   */
+  private static boolean isDescendant(EntityReference reference, EntityReference ancestor) {
+    for (EntityReference current = reference.getParent(); current != null; current = current.getParent()) {
+      if (current.equals(ancestor)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks if a counted value is positive.
+   *
+   * @param value
+   *          the counted value
+   * @return true, if the value is positive
+   */
+  private static boolean isPositive(Object value) {
+    return value instanceof Number && ((Number) value).longValue() > 0;
+  }
+
+  /**
+   * Convert a list of nodes to the list of their references.
+   *
+   * @param nodes
+   *          the nodes
+   * @return the references
+   */
+  private static List<DocumentReference> toReferences(List<Node> nodes) {
+    List<DocumentReference> references = new ArrayList<>(nodes.size());
+    for (Node node : nodes) {
+      references.add(node.getDocumentReference());
+    }
+    return references;
+  }
+
   /** The nodes. */
-  private Map<DocumentReference, Node> nodes = new HashMap<>();
+  private final Map<DocumentReference, Node> nodes = new ConcurrentHashMap<>();
+
+  /**
+   * The authorization decisions of the request by document (the key of the
+   * decisions is the user and the right).
+   */
+  private final Map<DocumentReference, Map<List<Object>, Boolean>> decisions = new ConcurrentHashMap<>();
+
+  /** The shared node cache. */
+  private NodeCache nodeCache;
+
+  /** Evaluate the view right once by space in {@link #filterVisible(List)} ?. */
+  private boolean spaceRightsShortcut = true;
+
+  /** The index registry. */
+  private IndexRegistry indexRegistry;
 
   /** The query manager. */
   private QueryManager queryManager;
@@ -759,13 +1099,20 @@ public class DocumentWalker {
    *          the query manager
    * @param authorizationManager
    *          the authorization manager
+   * @param nodeCache
+   *          the shared node cache
+   * @param indexRegistry
+   *          the index registry
    */
   public DocumentWalker(BookToolsService service, DocumentReferenceResolver<String> documentReferenceResolver,
-      QueryManager queryManager, AuthorizationManager authorizationManager) {
+      QueryManager queryManager, AuthorizationManager authorizationManager, NodeCache nodeCache,
+      IndexRegistry indexRegistry) {
     this.service = service;
     this.documentReferenceResolver = documentReferenceResolver;
     this.queryManager = queryManager;
     this.authorizationManager = authorizationManager;
+    this.nodeCache = nodeCache;
+    this.indexRegistry = indexRegistry;
   }
 
   /**
@@ -780,12 +1127,424 @@ public class DocumentWalker {
       return null;
     }
 
-    Node node = nodes.get(documentReference);
-    if (node == null) {
-      node = new Node(documentReference);
-      nodes.put(documentReference, node);
+    return nodes.computeIfAbsent(documentReference, reference -> new Node(reference));
+  }
+
+  /**
+   * Set the descriptions of nodes from the queried values. A node without
+   * queried value does not exist.
+   *
+   * @param targets
+   *          the nodes whose description must be set
+   * @param infos
+   *          the queried descriptions
+   */
+  private void applyInfos(Collection<Node> targets, Map<DocumentReference, NodeInfo> infos) {
+    for (Node node : targets) {
+      NodeInfo info = infos.get(node.documentReference);
+      node.info = info == null ? MISSING_DOCUMENT : info;
+      nodeCache.setInfo(node.documentReference, node.info);
+      if (node.order == null) {
+        node.order = node.info.getOrder();
+        nodeCache.setOrder(node.documentReference, node.order);
+      }
     }
-    return node;
+  }
+
+  /**
+   * Gets the nodes whose description is unknown and must be queried. A node
+   * whose document is already loaded reads the document.
+   *
+   * @param targets
+   *          the nodes
+   * @return the nodes whose description must be queried
+   */
+  private List<Node> getUnknownInfos(Collection<Node> targets) {
+    List<Node> results = new ArrayList<>();
+    for (Node node : targets) {
+      if (node.info == null && node.document == null) {
+        node.info = nodeCache.getInfo(node.documentReference);
+        if (node.info == null) {
+          results.add(node);
+        }
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Filter the nodes which can be viewed by the current user. The documents
+   * without document level rights inherit the rights of their space : the
+   * right is evaluated once by space for them and individually for the others
+   * (found with a single query).
+   * <p>
+   * This shortcut assumes that the rights of a document without XWikiRights
+   * object only depend on its space (and the wiki), which holds for the default
+   * XWiki security policy : the global and wiki rights are taken into account
+   * since the decision of the space is evaluated for the request. A custom
+   * security policy (deciding from something else than the rights objects)
+   * must disable it with the <tt>booktools.rights.spaceShortcut</tt> property,
+   * every node is then evaluated individually (the decisions are still cached
+   * for the request).
+   *
+   * @param candidates
+   *          the nodes
+   * @return the visible nodes (in the same order)
+   */
+  public List<Node> filterVisible(List<Node> candidates) {
+    DocumentReference userReference = service.getContext().getUserReference();
+    List<Object> key = Arrays.asList(userReference, Right.VIEW);
+
+    if (!spaceRightsShortcut) {
+      List<Node> results = new ArrayList<>();
+      for (Node node : candidates) {
+        if (hasAccess(Right.VIEW, node.documentReference)) {
+          results.add(node);
+        }
+      }
+      return results;
+    }
+
+    // the nodes whose decision is not known by space
+    Map<SpaceReference, List<Node>> bySpace = new HashMap<>();
+    for (Node node : candidates) {
+      Map<List<Object>, Boolean> documentDecisions = decisions.get(node.documentReference);
+      if (documentDecisions == null || !documentDecisions.containsKey(key)) {
+        bySpace.computeIfAbsent(node.documentReference.getLastSpaceReference(), k -> new ArrayList<>()).add(node);
+      }
+    }
+
+    if (!bySpace.isEmpty()) {
+      Set<DocumentReference> withRights = queryDocumentsWithRights(bySpace.keySet());
+      for (List<Node> spaceNodes : bySpace.values()) {
+        Boolean spaceDecision = null;
+        for (Node node : spaceNodes) {
+          if (withRights == null || withRights.contains(node.documentReference)) {
+            hasAccess(Right.VIEW, node.documentReference);
+          } else {
+            if (spaceDecision == null) {
+              spaceDecision = hasAccess(Right.VIEW, node.documentReference);
+            }
+            decisions.computeIfAbsent(node.documentReference, k -> new ConcurrentHashMap<>()).put(key,
+                spaceDecision);
+          }
+        }
+      }
+    }
+
+    List<Node> results = new ArrayList<>();
+    for (Node node : candidates) {
+      Map<List<Object>, Boolean> documentDecisions = decisions.get(node.documentReference);
+      Boolean visible = documentDecisions == null ? null : documentDecisions.get(key);
+      if (visible == null) {
+        // invalidated meanwhile by another thread
+        visible = hasAccess(Right.VIEW, node.documentReference);
+      }
+      if (visible) {
+        results.add(node);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Enable (or not) the evaluation of the view right once by space for the
+   * documents without document level rights in {@link #filterVisible(List)}.
+   *
+   * @param enabled
+   *          evaluate the view right once by space ?
+   */
+  public void setSpaceRightsShortcut(boolean enabled) {
+    this.spaceRightsShortcut = enabled;
+  }
+
+  /**
+   * Gets the navigation table of a book. The table is built (loading the whole
+   * book at once) if it is not cached, the pending changes are applied if it
+   * has been invalidated.
+   * <p>
+   * The table is shared between requests : it is refreshed from a fresh walker
+   * (backed by the shared node cache) and not from this walker, which may hold
+   * stale nodes and is not meant to be shared.
+   *
+   * @param root
+   *          the root of the book
+   * @return the navigation table
+   */
+  public NavigationTable getNavigationTable(Node root) {
+    DocumentReference rootReference = root.getDocumentReference();
+    NavigationTable table = nodeCache.getNavigationTable(rootReference);
+    if (table == null) {
+      DocumentWalker walker = service.createDocumentWalker();
+      walker.getNode(rootReference).loadSubtreeIfUnknown();
+      table = new NavigationTable(rootReference);
+      table.refresh(walker);
+      nodeCache.setNavigationTable(rootReference, table);
+    } else if (table.isOutdated()) {
+      table.refresh(service.createDocumentWalker());
+    }
+    return table;
+  }
+
+  /**
+   * Checks if the current user has a right on a document. The decisions are
+   * cached for the request.
+   *
+   * @param right
+   *          the right
+   * @param documentReference
+   *          the document reference
+   * @return true, if the current user has the right
+   */
+  public boolean hasAccess(Right right, DocumentReference documentReference) {
+    DocumentReference userReference = service.getContext().getUserReference();
+    List<Object> key = Arrays.asList(userReference, right);
+    Map<List<Object>, Boolean> documentDecisions = decisions.computeIfAbsent(documentReference,
+        k -> new ConcurrentHashMap<>());
+    Boolean result = documentDecisions.get(key);
+    if (result == null) {
+      result = authorizationManager.hasAccess(right, userReference, documentReference);
+      documentDecisions.put(key, result);
+    }
+    return result;
+  }
+
+  /**
+   * Invalidate the request-scoped data related to a document (the document and
+   * its parent) after the document has been created, updated or deleted.
+   *
+   * @param documentReference
+   *          the document reference
+   */
+  public void invalidate(DocumentReference documentReference) {
+    nodes.remove(documentReference);
+    DocumentReference parentReference = getParentReference(documentReference);
+    if (parentReference != null) {
+      nodes.remove(parentReference);
+    }
+    // the rights of a document are defined by the document itself, the space
+    // and wiki preferences
+    if ("WebPreferences".equals(documentReference.getName())
+        || "XWikiPreferences".equals(documentReference.getName())) {
+      decisions.clear();
+    } else {
+      decisions.remove(documentReference);
+    }
+  }
+
+  /**
+   * Load the lightweight descriptions (title, order, hidden flag, index, local
+   * index and entry flags) of nodes with one projection query (by chunk of
+   * references) instead of loading each document.
+   *
+   * @param targets
+   *          the nodes
+   */
+  public void loadInfos(Collection<Node> targets) {
+    List<Node> unknown = getUnknownInfos(targets);
+    if (unknown.isEmpty()) {
+      return;
+    }
+
+    Map<WikiReference, List<Node>> byWiki = new HashMap<>();
+    for (Node node : unknown) {
+      byWiki.computeIfAbsent(node.documentReference.getWikiReference(), k -> new ArrayList<>()).add(node);
+    }
+
+    for (Map.Entry<WikiReference, List<Node>> entry : byWiki.entrySet()) {
+      WikiReference wikiReference = entry.getKey();
+      List<Node> wikiNodes = entry.getValue();
+      Map<DocumentReference, NodeInfo> infos = new HashMap<>();
+      try {
+        for (int start = 0; start < wikiNodes.size(); start += QUERY_CHUNK_SIZE) {
+          List<String> names = new ArrayList<>();
+          for (Node node : wikiNodes.subList(start, Math.min(start + QUERY_CHUNK_SIZE, wikiNodes.size()))) {
+            names.add(Utils.LOCAL_REFERENCE_SERIALIZER.serialize(node.documentReference));
+          }
+          readInfos(queryManager.createQuery(INFO_QUERY + "doc.fullName in (:names)", Query.HQL)
+              .bindValue("names", names).setWiki(wikiReference.getName()), wikiReference, infos);
+        }
+      } catch (QueryException ex) {
+        // the documents will be loaded
+        logger.warn("An error occurred while querying the description of " + wikiNodes, ex);
+        continue;
+      }
+      applyInfos(wikiNodes, infos);
+    }
+  }
+
+  /**
+   * Load the whole subtree of a node with a constant number of queries (instead
+   * of two queries by node) and fill the children of all the nodes of the
+   * subtree in the request-scoped and shared caches.
+   *
+   * @param root
+   *          the root of the subtree
+   */
+  public void loadSubtree(Node root) {
+    DocumentReference rootReference = root.getDocumentReference();
+    if (!"WebHome".equals(rootReference.getName())) {
+      // only a space WebHome has children
+      return;
+    }
+
+    WikiReference wikiReference = rootReference.getWikiReference();
+    SpaceReference rootSpace = rootReference.getLastSpaceReference();
+    String spaceName = Utils.LOCAL_REFERENCE_SERIALIZER.serialize(rootSpace);
+    // the nested spaces (the wildcards of the space name are matched literally)
+    String prefix = escapeLike(spaceName) + ".%";
+
+    // the hidden flag of all the documents of the subtree (root excluded)
+    Map<DocumentReference, Boolean> hidden = new HashMap<>();
+    try {
+      // the documents which are not nested spaces
+      for (Object[] row : queryManager
+          .createQuery("select doc.fullName, doc.hidden from Document doc where doc.name <> 'WebHome' "
+              + "and (doc.space = :space or doc.space like :prefix escape '!')", Query.XWQL)
+          .bindValue("space", spaceName).bindValue("prefix", prefix).setWiki(wikiReference.getName())
+          .<Object[]> execute()) {
+        hidden.put(documentReferenceResolver.resolve((String) row[0], wikiReference), Boolean.TRUE.equals(row[1]));
+      }
+      // the nested spaces
+      for (Object[] row : queryManager
+          .createQuery(
+              "select space.reference, space.hidden from Space space where space.reference like :prefix escape '!'",
+              Query.XWQL)
+          .bindValue("prefix", prefix).setWiki(wikiReference.getName()).<Object[]> execute()) {
+        hidden.put(documentReferenceResolver.resolve(row[0] + ".WebHome", wikiReference),
+            Boolean.TRUE.equals(row[1]));
+      }
+    } catch (QueryException ex) {
+      logger.warn("An error occurred while querying the subtree of " + rootReference, ex);
+      return;
+    }
+
+    // the descriptions of the documents (the orders are used to sort the
+    // children)
+    Map<DocumentReference, NodeInfo> infos = new HashMap<>();
+    try {
+      readInfos(
+          queryManager.createQuery(INFO_QUERY + "(doc.space = :space or doc.space like :prefix escape '!')", Query.HQL)
+              .bindValue("space", spaceName).bindValue("prefix", prefix).setWiki(wikiReference.getName()),
+          wikiReference, infos);
+    } catch (QueryException ex) {
+      // the documents will be loaded
+      logger.warn("An error occurred while querying the description of the subtree of " + rootReference, ex);
+      infos = null;
+    }
+
+    // build the hierarchy
+    Map<DocumentReference, List<Node>> childrenByParent = new HashMap<>();
+    childrenByParent.put(rootReference, new ArrayList<>());
+    for (DocumentReference reference : hidden.keySet()) {
+      // the like operator can match unrelated spaces
+      if (!isDescendant(reference, rootSpace)) {
+        continue;
+      }
+      childrenByParent.computeIfAbsent(getParentReference(reference), k -> new ArrayList<>()).add(getNode(reference));
+      if ("WebHome".equals(reference.getName())) {
+        childrenByParent.computeIfAbsent(reference, k -> new ArrayList<>());
+      }
+    }
+
+    if (infos != null) {
+      List<Node> subtree = new ArrayList<>();
+      subtree.add(root);
+      for (List<Node> nodeChildren : childrenByParent.values()) {
+        subtree.addAll(nodeChildren);
+      }
+      applyInfos(getUnknownInfos(subtree), infos);
+    }
+
+    for (Map.Entry<DocumentReference, List<Node>> entry : childrenByParent.entrySet()) {
+      List<Node> withHidden = entry.getValue();
+      Collections.sort(withHidden);
+      List<Node> withoutHidden = new ArrayList<>();
+      for (Node child : withHidden) {
+        if (!hidden.get(child.getDocumentReference())) {
+          withoutHidden.add(child);
+        }
+      }
+
+      Node parent = getNode(entry.getKey());
+      parent.children = Collections.unmodifiableList(withoutHidden);
+      parent.childrenWithHidden = Collections.unmodifiableList(withHidden);
+      nodeCache.setChildren(entry.getKey(), false, toReferences(withoutHidden));
+      nodeCache.setChildren(entry.getKey(), true, toReferences(withHidden));
+    }
+  }
+
+  /**
+   * Query the documents holding document level rights in some spaces.
+   *
+   * @param spaces
+   *          the spaces
+   * @return the documents holding document level rights or null if an error
+   *         occurred
+   */
+  private Set<DocumentReference> queryDocumentsWithRights(Collection<SpaceReference> spaces) {
+    Map<WikiReference, List<String>> byWiki = new HashMap<>();
+    for (SpaceReference space : spaces) {
+      byWiki.computeIfAbsent(new WikiReference(space.extractReference(EntityType.WIKI)), k -> new ArrayList<>())
+          .add(Utils.LOCAL_REFERENCE_SERIALIZER.serialize(space));
+    }
+
+    Set<DocumentReference> results = new HashSet<>();
+    try {
+      for (Map.Entry<WikiReference, List<String>> entry : byWiki.entrySet()) {
+        List<String> names = entry.getValue();
+        for (int start = 0; start < names.size(); start += QUERY_CHUNK_SIZE) {
+          List<String> chunk = new ArrayList<>(names.subList(start, Math.min(start + QUERY_CHUNK_SIZE, names.size())));
+          for (String fullName : queryManager
+              .createQuery("select distinct doc.fullName from Document doc, doc.object(" + RIGHTS_CLASS
+                  + ") as rights where doc.space in (:spaces)", Query.XWQL)
+              .bindValue("spaces", chunk)
+              .setWiki(entry.getKey().getName()).<String> execute()) {
+            results.add(documentReferenceResolver.resolve(fullName, entry.getKey()));
+          }
+        }
+      }
+    } catch (QueryException ex) {
+      // the rights will be evaluated for each document
+      logger.warn("An error occurred while querying the document level rights of " + spaces, ex);
+      return null;
+    }
+    return results;
+  }
+
+  /**
+   * Read the result of a description query.
+   *
+   * @param query
+   *          the description query
+   * @param wikiReference
+   *          the wiki reference
+   * @param infos
+   *          the descriptions to fill
+   * @throws QueryException
+   *           the query exception
+   */
+  private void readInfos(Query query, WikiReference wikiReference, Map<DocumentReference, NodeInfo> infos)
+      throws QueryException {
+    for (Object[] row : query.<Object[]> execute()) {
+      int order = row[3] instanceof Number ? ((Number) row[3]).intValue() : Integer.MAX_VALUE;
+      infos.put(documentReferenceResolver.resolve((String) row[0], wikiReference),
+          new NodeInfo(row[1] == null ? "" : (String) row[1], order, Boolean.TRUE.equals(row[2]), isPositive(row[4]),
+              isPositive(row[5]), isPositive(row[6])));
+    }
+  }
+
+  /**
+   * Resolve a serialized document reference.
+   *
+   * @param reference
+   *          the serialized reference
+   * @param wikiReference
+   *          the wiki used when the reference does not specify one
+   * @return the document reference
+   */
+  public DocumentReference resolveReference(String reference, WikiReference wikiReference) {
+    return documentReferenceResolver.resolve(reference, wikiReference);
   }
 
   /**
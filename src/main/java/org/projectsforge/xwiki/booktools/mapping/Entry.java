@@ -1,27 +1,37 @@
 package org.projectsforge.xwiki.booktools.mapping;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+import org.apache.commons.lang3.StringUtils;
 import org.projectsforge.xwiki.booktools.Constants;
 import org.projectsforge.xwiki.booktools.Error;
 import org.projectsforge.xwiki.booktools.Utils;
 import org.projectsforge.xwiki.booktools.biblatex.BibLaTeXExporter;
+import org.projectsforge.xwiki.booktools.cache.PooledCSL;
 import org.projectsforge.xwiki.booktools.fields.CSLCategoriesFields;
 import org.projectsforge.xwiki.booktools.fields.CSLDateFields;
 import org.projectsforge.xwiki.booktools.fields.CSLNameFields;
 import org.projectsforge.xwiki.booktools.fields.CSLStringFields;
 import org.projectsforge.xwiki.booktools.fields.CSLTypeFields;
 import org.projectsforge.xwiki.booktools.mapping.DocumentWalker.Node;
+import org.projectsforge.xwiki.booktools.service.BookToolsService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.WikiReference;
 
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
 
 import de.undercouch.citeproc.CSL;
-import de.undercouch.citeproc.ListItemDataProvider;
 import de.undercouch.citeproc.csl.CSLItemData;
 import de.undercouch.citeproc.csl.CSLItemDataBuilder;
 import de.undercouch.citeproc.output.Bibliography;
@@ -38,6 +48,12 @@ public class Entry {
   /** The Constant CLASS_REFERENCE_AS_STRING. */
   public static final String CLASS_REFERENCE_AS_STRING = Constants.CODE_SPACE_NAME_AS_STRING + ".EntryClass";
 
+  /** The context key holding the reference of the entry being saved once rendered. */
+  private static final String CONTEXT_RENDERED_SAVE = "booktools.entry.renderedSave";
+
+  /** The locale of the rendered entries. */
+  private static final String DEFAULT_LOCALE = "en-US";
+
   /** The Constant FIELD_BIBLATEX. */
   private static final String FIELD_BIBLATEX = "biblatex";
 
@@ -56,6 +72,12 @@ public class Entry {
   /** The Constant NAME_SUFFIX. */
   public static final String NAME_SUFFIX = ".WebHome";
 
+  /** The maximum number of entries rendered by a single CSL engine. */
+  public static final int RENDER_CHUNK_SIZE = 500;
+
+  /** The dirty. */
+  private boolean dirty;
+
   /** The node. */
   private Node node;
 
@@ -73,6 +95,45 @@ public class Entry {
     this.xobject = node.getXObject(CLASS_REFERENCE, true);
   }
 
+  /**
+   * Builds the CSL item data from the fields and stores it.
+   *
+   * @return the CSL item data or null if it can not be built
+   */
+  private CSLItemData buildCSLItemData() {
+    try {
+      CSLItemDataBuilder builder = new CSLItemDataBuilder();
+
+      for (CSLTypeFields field : CSLTypeFields.values()) {
+        field.fillFromXObject(node.getService(), builder, xobject);
+      }
+
+      for (CSLStringFields field : CSLStringFields.values()) {
+        field.fillFromXObject(node.getService(), builder, xobject);
+      }
+
+      for (CSLNameFields field : CSLNameFields.values()) {
+        field.fillFromXObject(node.getService(), builder, xobject);
+      }
+
+      for (CSLDateFields field : CSLDateFields.values()) {
+        field.fillFromXObject(node.getService(), builder, xobject);
+      }
+
+      for (CSLCategoriesFields field : CSLCategoriesFields.values()) {
+        field.fillFromXObject(node.getService(), builder, xobject);
+      }
+
+      CSLItemData itemData = builder.build();
+      setLargeStringValue(FIELD_CSL_ITEM_DATA, Utils.serializeCSLItemData(itemData));
+      return itemData;
+    } catch (Exception ex) {
+      node.getService().addError(Error.BUILD_CSLDATAITEM, node.getDocumentReference(), xobject, ex.getMessage());
+      logger.warn("An error occurred", ex);
+      return null;
+    }
+  }
+
   /**
    * Fill from CSL object.
    *
@@ -101,6 +162,7 @@ public class Entry {
     for (CSLCategoriesFields field : CSLCategoriesFields.values()) {
       field.fillFromCSLObject(node.getService(), xobject, itemData);
     }
+    dirty = true;
   }
 
   /**
@@ -112,6 +174,21 @@ public class Entry {
     return Utils.deserializeCSLItemData(node.getService(), xobject.getLargeStringValue(FIELD_CSL_ITEM_DATA));
   }
 
+  /**
+   * Gets the key of the entry held by a document without wrapping it.
+   *
+   * @param document
+   *          the document
+   * @return the trimmed key or null if the document does not hold an entry
+   */
+  public static String getKey(XWikiDocument document) {
+    BaseObject xobject = document == null ? null : document.getXObject(CLASS_REFERENCE);
+    if (xobject == null) {
+      return null;
+    }
+    return StringUtils.trimToNull(xobject.getStringValue(CSLStringFields.ID.toString()));
+  }
+
   /**
    * Gets the node.
    *
@@ -131,54 +208,184 @@ public class Entry {
   }
 
   /**
-   * Update some fields (triggered when the document is saved through events).
+   * Checks if an entry is being saved once rendered by BookTools (its fields are
+   * already up to date and must not be rendered again).
+   *
+   * @param context
+   *          the context
+   * @param reference
+   *          the entry document reference
+   * @return true, if the entry is being saved once rendered
    */
-  public void update() {
-    try {
-      CSLItemDataBuilder builder = new CSLItemDataBuilder();
+  public static boolean isRenderedSave(XWikiContext context, DocumentReference reference) {
+    return reference.equals(context.get(CONTEXT_RENDERED_SAVE));
+  }
 
-      for (CSLTypeFields field : CSLTypeFields.values()) {
-        field.fillFromXObject(node.getService(), builder, xobject);
+  /**
+   * Render a chunk of entries with a single CSL engine. If the chunk can not be
+   * rendered, its entries are rendered one by one so that a faulty entry does
+   * not prevent the rendering of the others.
+   *
+   * @param style
+   *          the entry style
+   * @param chunk
+   *          the entries by key
+   * @param itemDatas
+   *          the item data of the entries
+   */
+  private static void render(String style, Map<String, Entry> chunk, Map<Entry, CSLItemData> itemDatas) {
+    BookToolsService service = chunk.values().iterator().next().node.getService();
+    List<CSLItemData> items = new ArrayList<>();
+    chunk.values().forEach(entry -> items.add(itemDatas.get(entry)));
+
+    Bibliography bibliography;
+    try (PooledCSL engine = service.getCSLEnginePool().borrow(style, DEFAULT_LOCALE, items)) {
+      CSL csl = engine.getCSL();
+      csl.registerCitationItems(chunk.keySet().toArray(new String[0]));
+      csl.setOutputFormat("text");
+      bibliography = csl.makeBibliography();
+    } catch (IOException ex) {
+      for (Entry entry : chunk.values()) {
+        service.addError(Error.CSL, entry.node.getDocumentReference(), entry.xobject, ex.getMessage());
       }
-
-      for (CSLStringFields field : CSLStringFields.values()) {
-        field.fillFromXObject(node.getService(), builder, xobject);
+      logger.warn("Can not format title", ex);
+      return;
+    } catch (Exception ex) {
+      if (chunk.size() > 1) {
+        for (Map.Entry<String, Entry> entry : chunk.entrySet()) {
+          render(style, Collections.singletonMap(entry.getKey(), entry.getValue()), itemDatas);
+        }
+      } else {
+        Entry entry = chunk.values().iterator().next();
+        service.addError(Error.BUILD_CSLDATAITEM, entry.node.getDocumentReference(), entry.xobject, ex.getMessage());
+        logger.warn("An error occurred", ex);
       }
+      return;
+    }
 
-      for (CSLNameFields field : CSLNameFields.values()) {
-        field.fillFromXObject(node.getService(), builder, xobject);
+    // the bibliography is sorted by the style : the entries are matched by key
+    String[] ids = bibliography.getEntryIds();
+    String[] texts = bibliography.getEntries();
+    for (int i = 0; i < texts.length; ++i) {
+      Entry entry = chunk.size() == 1 ? chunk.values().iterator().next() : chunk.get(ids[i]);
+      if (entry != null) {
+        entry.setRendered(itemDatas.get(entry), texts[i]);
       }
+    }
+  }
 
-      for (CSLDateFields field : CSLDateFields.values()) {
-        field.fillFromXObject(node.getService(), builder, xobject);
+  /**
+   * Update some fields of several entries. The entries are rendered with one
+   * CSL engine per chunk of {@link #RENDER_CHUNK_SIZE} entries (and per wiki
+   * since the entry style is configured by wiki).
+   *
+   * @param entries
+   *          the entries
+   */
+  public static void update(List<Entry> entries) {
+    Map<WikiReference, Map<Entry, CSLItemData>> byWiki = new LinkedHashMap<>();
+    for (Entry entry : entries) {
+      CSLItemData itemData = entry.buildCSLItemData();
+      if (itemData != null) {
+        byWiki.computeIfAbsent(entry.node.getDocumentReference().getWikiReference(), k -> new LinkedHashMap<>())
+            .put(entry, itemData);
       }
+    }
 
-      for (CSLCategoriesFields field : CSLCategoriesFields.values()) {
-        field.fillFromXObject(node.getService(), builder, xobject);
+    for (Map.Entry<WikiReference, Map<Entry, CSLItemData>> wiki : byWiki.entrySet()) {
+      Map<Entry, CSLItemData> itemDatas = wiki.getValue();
+      String style = itemDatas.keySet().iterator().next().node.getService().getStyleRegistry()
+          .getStyle(wiki.getKey(), Configuration.FIELD_BIBLIOGRAPHY_ENTRY_STYLE).getText();
+
+      // two entries with the same key can not be registered in the same engine
+      Map<String, Entry> chunk = new LinkedHashMap<>();
+      for (Map.Entry<Entry, CSLItemData> itemData : itemDatas.entrySet()) {
+        String key = itemData.getValue().getId();
+        if (chunk.size() == RENDER_CHUNK_SIZE || chunk.containsKey(key)) {
+          render(style, chunk, itemDatas);
+          chunk = new LinkedHashMap<>();
+        }
+        chunk.put(key, itemData.getKey());
+      }
+      if (!chunk.isEmpty()) {
+        render(style, chunk, itemDatas);
       }
+    }
+  }
 
-      CSLItemData itemData = builder.build();
-      xobject.setLargeStringValue(FIELD_CSL_ITEM_DATA, Utils.serializeCSLItemData(itemData));
+  /**
+   * Checks if the entry differs from the saved one.
+   *
+   * @return true, if the entry must be saved
+   */
+  public boolean isDirty() {
+    return dirty;
+  }
 
-      CSL csl = new CSL(new ListItemDataProvider(itemData),
-          node.getService().getDefaultConfiguration(node.getDocumentReference().getWikiReference())
-              .getBibliographyStyle(Configuration.FIELD_BIBLIOGRAPHY_ENTRY_STYLE));
-      csl.registerCitationItems(itemData.getId());
-      csl.setOutputFormat("text");
-      Bibliography bibiography = csl.makeBibliography();
-      String rendered = bibiography.getEntries()[0].trim();
-      rendered = rendered.replaceAll(Constants.ENTRY_TARGET_MARK, node.getDocumentReference().toString());
+  /**
+   * Save the entry if it has been modified. Its fields are up to date : they are
+   * not rendered again when the document is saved.
+   */
+  public void save() {
+    if (dirty) {
+      XWikiContext context = node.getService().getContext();
+      Object previous = context.put(CONTEXT_RENDERED_SAVE, node.getDocumentReference());
+      try {
+        node.save();
+        dirty = false;
+      } finally {
+        if (previous == null) {
+          context.remove(CONTEXT_RENDERED_SAVE);
+        } else {
+          context.put(CONTEXT_RENDERED_SAVE, previous);
+        }
+      }
+    }
+  }
 
-      node.getXWikiDocument().setTitle(itemData.getId());
-      xobject.setLargeStringValue(FIELD_RENDERED, rendered);
-      xobject.setLargeStringValue(FIELD_BIBLATEX, BibLaTeXExporter.export(itemData));
-    } catch (IOException ex) {
-      node.getService().addError(Error.CSL, node.getDocumentReference(), xobject, ex.getMessage());
-      logger.warn("Can not format title", ex);
+  /**
+   * Sets the value of a large string field if it differs.
+   *
+   * @param fieldName
+   *          the field name
+   * @param value
+   *          the value
+   */
+  private void setLargeStringValue(String fieldName, String value) {
+    if (!StringUtils.equals(value, xobject.getLargeStringValue(fieldName))) {
+      xobject.setLargeStringValue(fieldName, value);
+      dirty = true;
+    }
+  }
+
+  /**
+   * Write back the rendered fields.
+   *
+   * @param itemData
+   *          the item data
+   * @param rendered
+   *          the rendered entry
+   */
+  private void setRendered(CSLItemData itemData, String rendered) {
+    try {
+      if (!StringUtils.equals(itemData.getId(), node.getXWikiDocument().getTitle())) {
+        node.getXWikiDocument().setTitle(itemData.getId());
+        dirty = true;
+      }
+      setLargeStringValue(FIELD_RENDERED,
+          rendered.trim().replaceAll(Constants.ENTRY_TARGET_MARK, node.getDocumentReference().toString()));
+      setLargeStringValue(FIELD_BIBLATEX, BibLaTeXExporter.export(itemData));
     } catch (Exception ex) {
       node.getService().addError(Error.BUILD_CSLDATAITEM, node.getDocumentReference(), xobject, ex.getMessage());
       logger.warn("An error occurred", ex);
     }
   }
 
+  /**
+   * Update some fields (triggered when the document is saved through events).
+   */
+  public void update() {
+    update(Collections.singletonList(this));
+  }
+
 }
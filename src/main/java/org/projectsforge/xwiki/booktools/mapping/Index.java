@@ -1,14 +1,25 @@
 package org.projectsforge.xwiki.booktools.mapping;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.Lock;
 
 import org.apache.commons.lang3.StringUtils;
 import org.projectsforge.xwiki.booktools.Constants;
+import org.projectsforge.xwiki.booktools.EncodedEntries;
+import org.projectsforge.xwiki.booktools.Error;
 import org.projectsforge.xwiki.booktools.Utils;
+import org.projectsforge.xwiki.booktools.cache.CachedEntry;
+import org.projectsforge.xwiki.booktools.cache.IndexSnapshotCache;
 import org.projectsforge.xwiki.booktools.macro.Scope;
 import org.projectsforge.xwiki.booktools.mapping.DocumentWalker.Node;
 import org.slf4j.Logger;
@@ -17,6 +28,9 @@ import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.objects.BaseObject;
 
 import de.undercouch.citeproc.csl.CSLItemData;
@@ -26,6 +40,32 @@ import de.undercouch.citeproc.csl.CSLItemData;
  */
 public class Index {
 
+  /**
+   * The origin of a key : the first page (in the book order) citing the key and
+   * the position of the key in the local index of this page.
+   */
+  private static class KeyOrigin {
+
+    /** The page. */
+    private final DocumentReference page;
+
+    /** The position of the key in the local index of the page. */
+    private final int rank;
+
+    /**
+     * Instantiates a new key origin.
+     *
+     * @param page
+     *          the page
+     * @param rank
+     *          the position of the key in the local index of the page
+     */
+    KeyOrigin(DocumentReference page, int rank) {
+      this.page = page;
+      this.rank = rank;
+    }
+  }
+
   /** The Constant CLASS_REFERENCE. */
   public static final EntityReference CLASS_REFERENCE = new EntityReference("IndexClass", EntityType.DOCUMENT,
       Constants.CODE_SPACE_REFERENCE);
@@ -42,15 +82,44 @@ public class Index {
   /** The Constant FIELD_EXPIRED. */
   public static final String FIELD_EXPIRED = "expired";
 
+  /** The Constant FIELD_KEY_ORIGINS. */
+  public static final String FIELD_KEY_ORIGINS = "keyOrigins";
+
   /** The Constant FIELD_KEYS. */
   public static final String FIELD_KEYS = "keys";
 
+  /** The context key holding the reference of the index being saved by BookTools. */
+  private static final String CONTEXT_INTERNAL_SAVE = "booktools.index.internalSave";
+
   /** The logger. */
   private static Logger logger = LoggerFactory.getLogger(Index.class);
 
+  /**
+   * Checks if an index is being saved by BookTools (its content is already up to
+   * date and must not be rebuilt).
+   *
+   * @param context
+   *          the context
+   * @param reference
+   *          the index document reference
+   * @return true, if the index is being saved by BookTools
+   */
+  public static boolean isInternalSave(XWikiContext context, DocumentReference reference) {
+    return reference.equals(context.get(CONTEXT_INTERNAL_SAVE));
+  }
+
+  /** The decoded entries. */
+  private EncodedEntries encodedEntries;
+
+  /** The value the entries have been decoded from. */
+  private String encodedEntriesValue;
+
   /** The node. */
   private Node node;
 
+  /** The snapshot of the rebuilt or updated content, published on save. */
+  private IndexSnapshot pendingSnapshot;
+
   /** The xobject. */
   private BaseObject xobject;
 
@@ -65,6 +134,24 @@ public class Index {
     this.xobject = node.getXObject(CLASS_REFERENCE, true);
   }
 
+  /**
+   * Create a snapshot of the current content of the index.
+   *
+   * @return the snapshot
+   */
+  private IndexSnapshot createSnapshot() {
+    EncodedEntries entries = getEncodedEntries();
+    Map<String, DocumentReference> references = new HashMap<>();
+    for (String key : entries.getKeys()) {
+      DocumentReference reference = entries.getReference(key);
+      if (reference != null) {
+        references.put(key, reference);
+      }
+    }
+    return new IndexSnapshot(node.getDocumentReference(), getKeys(), references, entries.toList(),
+        getBibliographyPage());
+  }
+
   /**
    * Gets the bibliography page.
    *
@@ -85,8 +172,9 @@ public class Index {
       style = xobject.getLargeStringValue(Configuration.FIELD_BIBLIOGRAPHY_MAIN_STYLE);
     }
     if (StringUtils.isBlank(style)) {
-      style = node.getService().getDefaultConfiguration(node.getDocumentReference().getWikiReference())
-          .getBibliographyStyle(Configuration.FIELD_BIBLIOGRAPHY_MAIN_STYLE);
+      style = node.getService().getStyleRegistry()
+          .getStyle(node.getDocumentReference().getWikiReference(), Configuration.FIELD_BIBLIOGRAPHY_MAIN_STYLE)
+          .getText();
     }
     if (StringUtils.isBlank(style)) {
       style = "ieee";
@@ -100,7 +188,22 @@ public class Index {
    * @return the entries
    */
   public List<CSLItemData> getEntries() {
-    return Utils.deserializeCSLItemDatas(xobject.getLargeStringValue(FIELD_ENTRIES));
+    return getEncodedEntries().toList();
+  }
+
+  /**
+   * Gets the entries without decoding them (they are decoded on access).
+   *
+   * @return the entries
+   */
+  public EncodedEntries getEncodedEntries() {
+    String value = xobject.getLargeStringValue(FIELD_ENTRIES);
+    // the stored value is the same instance until it is changed
+    if (encodedEntries == null || value != encodedEntriesValue) {
+      encodedEntries = EncodedEntries.decode(node.getService(), value);
+      encodedEntriesValue = value;
+    }
+    return encodedEntries;
   }
 
   /**
@@ -125,7 +228,35 @@ public class Index {
    * @return the keys
    */
   public List<String> getKeys() {
-    return Utils.deserializeKeys(node.getService(), xobject.getLargeStringValue(FIELD_KEYS));
+    return EncodedEntries.decodeKeys(node.getService(), xobject.getLargeStringValue(FIELD_KEYS));
+  }
+
+  /**
+   * Gets the origins of the keys.
+   *
+   * @return the origins by key or null if they are not available
+   */
+  private Map<String, KeyOrigin> getKeyOrigins() {
+    String value = xobject.getLargeStringValue(FIELD_KEY_ORIGINS);
+    if (StringUtils.isBlank(value)) {
+      return null;
+    }
+    try {
+      Map<String, List<Object>> values = Utils.OBJECT_MAPPER.readValue(value,
+          new TypeReference<LinkedHashMap<String, List<Object>>>() {
+          });
+      Map<String, KeyOrigin> origins = new HashMap<>();
+      for (Map.Entry<String, List<Object>> entry : values.entrySet()) {
+        DocumentReference page = node.getWalker().resolveReference((String) entry.getValue().get(0),
+            node.getDocumentReference().getWikiReference());
+        origins.put(entry.getKey(), new KeyOrigin(page, ((Number) entry.getValue().get(1)).intValue()));
+      }
+      return origins;
+    } catch (IOException | RuntimeException ex) {
+      node.getService().addError(Error.JSON_DECODING, value);
+      logger.warn("Failed decoding key origins (" + value + ")", ex);
+      return null;
+    }
   }
 
   /**
@@ -137,6 +268,23 @@ public class Index {
     return node;
   }
 
+  /**
+   * Gets the published snapshot of the index. The readers should use the
+   * snapshot rather than the index : it never blocks and it is never partially
+   * updated. If no snapshot is published yet, it is created from the current
+   * content of the index.
+   *
+   * @return the snapshot
+   */
+  public IndexSnapshot getSnapshot() {
+    IndexSnapshotCache cache = node.getService().getIndexSnapshotCache();
+    IndexSnapshot snapshot = cache.get(node.getDocumentReference());
+    if (snapshot == null) {
+      snapshot = cache.publishIfAbsent(createSnapshot());
+    }
+    return snapshot;
+  }
+
   /**
    * Gets the scope.
    *
@@ -163,6 +311,32 @@ public class Index {
     return xobject.getIntValue(FIELD_EXPIRED, 0) == 1;
   }
 
+  /**
+   * Save the index. The content of the index is not rebuilt on save. The
+   * snapshot of the rebuilt or updated content is published once the index is
+   * saved.
+   */
+  public void save() {
+    XWikiContext context = node.getService().getContext();
+    // the snapshots are published in the order of the saves
+    Lock lock = IndexLocks.lock(node.getDocumentReference());
+    Object previous = context.put(CONTEXT_INTERNAL_SAVE, node.getDocumentReference());
+    try {
+      node.save();
+      if (pendingSnapshot != null) {
+        node.getService().getIndexSnapshotCache().publish(pendingSnapshot);
+        pendingSnapshot = null;
+      }
+    } finally {
+      if (previous == null) {
+        context.remove(CONTEXT_INTERNAL_SAVE);
+      } else {
+        context.put(CONTEXT_INTERNAL_SAVE, previous);
+      }
+      lock.unlock();
+    }
+  }
+
   /**
    * Sets the bibliography page.
    *
@@ -174,13 +348,31 @@ public class Index {
   }
 
   /**
-   * Sets the CSL entries.
+   * Sets the entries from the references of the entry documents. The versions
+   * of the documents are taken from the shared entry cache (the missing entries
+   * are queried at once).
    *
-   * @param entries
-   *          the new CSL entries
+   * @param keys
+   *          the keys in order
+   * @param references
+   *          the references of the entry documents by key
    */
-  public void setCSLEntries(List<CSLItemData> entries) {
-    xobject.setLargeStringValue(FIELD_ENTRIES, Utils.serializedCSLItemDatas(entries));
+  private void setEntries(List<String> keys, Map<String, DocumentReference> references) {
+    Map<DocumentReference, CachedEntry> cachedEntries = node.getService().getEntryCache()
+        .getAll(references.values());
+    List<String> entryKeys = new ArrayList<>();
+    List<DocumentReference> entryReferences = new ArrayList<>();
+    List<String> entryVersions = new ArrayList<>();
+    for (String key : keys) {
+      DocumentReference reference = references.get(key);
+      CachedEntry entry = reference == null ? null : cachedEntries.get(reference);
+      if (entry != null) {
+        entryKeys.add(key);
+        entryReferences.add(reference);
+        entryVersions.add(entry.getVersion());
+      }
+    }
+    xobject.setLargeStringValue(FIELD_ENTRIES, EncodedEntries.encode(entryKeys, entryReferences, entryVersions));
   }
 
   /**
@@ -193,6 +385,27 @@ public class Index {
     xobject.setIntValue(FIELD_EXPIRED, expired ? 1 : 0);
   }
 
+  /**
+   * Sets the origins of the keys.
+   *
+   * @param origins
+   *          the origins by key
+   */
+  private void setKeyOrigins(Map<String, KeyOrigin> origins) {
+    Map<String, List<Object>> values = new LinkedHashMap<>();
+    for (Map.Entry<String, KeyOrigin> entry : origins.entrySet()) {
+      values.put(entry.getKey(),
+          Arrays.asList(Utils.LOCAL_REFERENCE_SERIALIZER.serialize(entry.getValue().page), entry.getValue().rank));
+    }
+    try {
+      xobject.setLargeStringValue(FIELD_KEY_ORIGINS, Utils.OBJECT_MAPPER.writeValueAsString(values));
+    } catch (JsonProcessingException ex) {
+      node.getService().addError(Error.JSON_ENCODING, values);
+      logger.debug("Can not serialize key origins", ex);
+      xobject.setLargeStringValue(FIELD_KEY_ORIGINS, "");
+    }
+  }
+
   /**
    * Sets the keys.
    *
@@ -200,7 +413,7 @@ public class Index {
    *          the new keys
    */
   public void setKeys(List<String> keys) {
-    xobject.setLargeStringValue(FIELD_KEYS, Utils.serializeKeys(node.getService(), keys));
+    xobject.setLargeStringValue(FIELD_KEYS, EncodedEntries.encodeKeys(keys));
   }
 
   /*
@@ -214,30 +427,48 @@ public class Index {
   }
 
   /**
-   * Update index if necessary.
+   * Reload the index document so that a change starts from the last saved
+   * content (another thread may have saved the index since it was read).
    */
-  public void update() {
-    if (!isExpired()) {
-      return;
-    }
-
-    // ensure only one update is done at a time
-    synchronized (Index.class) {
-      // collect all page tree from this index (included)
-      List<Node> tree = node.getTree();
+  private void reload() {
+    DocumentWalker walker = node.getWalker();
+    walker.invalidate(node.getDocumentReference());
+    node = walker.getNode(node.getDocumentReference());
+    xobject = node.getXObject(CLASS_REFERENCE, true);
+    encodedEntries = null;
+    encodedEntriesValue = null;
+    pendingSnapshot = null;
+  }
 
+  /**
+   * Rebuild the index from the local indexes of the book pages.
+   */
+  public void rebuild() {
+    // ensure only one update of this index is done at a time
+    Lock lock = IndexLocks.lock(node.getDocumentReference());
+    try {
       // collect informations
       List<String> keys = new ArrayList<>();
-      Set<String> keysSet = new HashSet<>();
+      Map<String, KeyOrigin> origins = new LinkedHashMap<>();
       DocumentReference bibliographyPage = null;
 
+      // the page tree from this index (included) : the descriptions are loaded
+      // at once so that only the pages holding a local index are loaded
+      List<Node> tree = node.getTree();
+      node.getWalker().loadInfos(tree);
+
       for (Node page : tree) {
+        if (!page.isLocalIndex()) {
+          continue;
+        }
         LocalIndex localIndex = page.wrapAsLocalIndex(this);
         // collect cited keys in order
-        for (String key : localIndex.getKeys()) {
-          if (!keysSet.contains(key)) {
+        List<String> localKeys = localIndex.getKeys();
+        for (int i = 0; i < localKeys.size(); ++i) {
+          String key = localKeys.get(i);
+          if (!origins.containsKey(key)) {
             keys.add(key);
-            keysSet.add(key);
+            origins.put(key, new KeyOrigin(page.getDocumentReference(), i));
           }
         }
         if (localIndex.getIsBibliographyPage()) {
@@ -248,22 +479,191 @@ public class Index {
         }
       }
       setKeys(keys);
+      setKeyOrigins(origins);
 
       setBibliographyPage(bibliographyPage == null ? "" : bibliographyPage.toString());
 
-      // load entries
-      List<CSLItemData> entries = new ArrayList<>();
-      for (String key : keys) {
-        Entry entry = node.getService().findEntry(this, key);
-        if (entry != null) {
-          entries.add(entry.getCSLItemData());
-        }
-      }
-      // save all entries for fast access
-      setCSLEntries(entries);
+      // resolve the entries at once, only their references and versions are
+      // stored
+      Map<String, DocumentReference> references = node.getService().findEntryReferences(this, keys);
+      setEntries(keys, references);
 
       // all update are done
       setExpired(false);
+      pendingSnapshot = createSnapshot();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Reload, rebuild and save the index while holding its lock so that no other
+   * update of the index is lost.
+   */
+  public void rebuildAndSave() {
+    Lock lock = IndexLocks.lock(node.getDocumentReference());
+    try {
+      reload();
+      rebuild();
+      save();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Update index if necessary.
+   */
+  public void update() {
+    if (isExpired()) {
+      rebuild();
+    }
+  }
+
+  /**
+   * Apply the change of the local index of a page of the book without walking
+   * the book : only the added keys are resolved. The change can not be applied
+   * when the order of the keys can not be deduced from the recorded origins
+   * (e.g. a key first cited by the page is no more cited by it), in this case
+   * the index must be fully rebuilt.
+   *
+   * @param page
+   *          the page of the book
+   * @param oldKeys
+   *          the keys cited by the page before the change
+   * @param oldBibliographyPage
+   *          true if the page was the bibliography page before the change
+   * @param newKeys
+   *          the keys cited by the page after the change
+   * @param newBibliographyPage
+   *          true if the page is the bibliography page after the change
+   * @return true, if the change has been applied, false if the index must be
+   *         fully rebuilt
+   */
+  private boolean update(Node page, List<String> oldKeys, boolean oldBibliographyPage, List<String> newKeys,
+      boolean newBibliographyPage) {
+    if (isExpired() || oldBibliographyPage != newBibliographyPage) {
+      return false;
+    }
+
+    Lock lock = IndexLocks.lock(node.getDocumentReference());
+    try {
+      List<String> keys = getKeys();
+      Map<String, KeyOrigin> origins = getKeyOrigins();
+      if (origins == null || origins.size() != keys.size() || !origins.keySet().containsAll(keys)) {
+        // the origins are missing or outdated
+        return false;
+      }
+      EncodedEntries entries = getEncodedEntries();
+      if (!entries.hasReferences()) {
+        // the entries are stored with a previous encoding
+        return false;
+      }
+
+      NavigationTable table = node.getWalker().getNavigationTable(node);
+      DocumentReference pageReference = page.getDocumentReference();
+      int pagePosition = table.getPosition(pageReference);
+      if (pagePosition == -1) {
+        return false;
+      }
+
+      // a key no more cited by the page may still be cited by a following page
+      Set<String> newKeysSet = new HashSet<>(newKeys);
+      for (String key : oldKeys) {
+        if (!newKeysSet.contains(key)) {
+          KeyOrigin origin = origins.get(key);
+          if (origin == null || origin.page.equals(pageReference)) {
+            return false;
+          }
+        }
+      }
+
+      List<String> addedKeys = new ArrayList<>();
+      for (int i = 0; i < newKeys.size(); ++i) {
+        String key = newKeys.get(i);
+        KeyOrigin origin = origins.get(key);
+        if (origin == null) {
+          addedKeys.add(key);
+          origins.put(key, new KeyOrigin(pageReference, i));
+        } else if (origin.page.equals(pageReference)) {
+          origins.put(key, new KeyOrigin(pageReference, i));
+        } else {
+          int position = table.getPosition(origin.page);
+          if (position == -1) {
+            return false;
+          }
+          if (position > pagePosition) {
+            // the page now cites the key first
+            origins.put(key, new KeyOrigin(pageReference, i));
+          }
+        }
+      }
+
+      // order the keys by origin
+      Map<String, Integer> positions = new HashMap<>();
+      for (Map.Entry<String, KeyOrigin> entry : origins.entrySet()) {
+        int position = table.getPosition(entry.getValue().page);
+        if (position == -1) {
+          return false;
+        }
+        positions.put(entry.getKey(), position);
+      }
+      List<String> orderedKeys = new ArrayList<>(origins.keySet());
+      Collections.sort(orderedKeys, Comparator.<String> comparingInt(positions::get)
+          .thenComparingInt(key -> origins.get(key).rank));
+
+      // only the added keys are resolved
+      Map<String, DocumentReference> references = node.getService().findEntryReferences(this, addedKeys);
+      for (String key : orderedKeys) {
+        if (!references.containsKey(key) && entries.getReference(key) != null) {
+          references.put(key, entries.getReference(key));
+        }
+      }
+      Map<String, KeyOrigin> orderedOrigins = new LinkedHashMap<>();
+      for (String key : orderedKeys) {
+        orderedOrigins.put(key, origins.get(key));
+      }
+
+      setKeys(orderedKeys);
+      setKeyOrigins(orderedOrigins);
+      setEntries(orderedKeys, references);
+      pendingSnapshot = createSnapshot();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Reload the index, apply the change of the local index of a page of the book
+   * without walking the book and save the index while holding its lock so that
+   * no other update of the index is lost.
+   *
+   * @param page
+   *          the page of the book
+   * @param oldKeys
+   *          the keys cited by the page before the change
+   * @param oldBibliographyPage
+   *          true if the page was the bibliography page before the change
+   * @param newKeys
+   *          the keys cited by the page after the change
+   * @param newBibliographyPage
+   *          true if the page is the bibliography page after the change
+   * @return true, if the change has been applied and saved, false if the index
+   *         must be fully rebuilt
+   */
+  public boolean updateAndSave(Node page, List<String> oldKeys, boolean oldBibliographyPage, List<String> newKeys,
+      boolean newBibliographyPage) {
+    Lock lock = IndexLocks.lock(node.getDocumentReference());
+    try {
+      reload();
+      if (!update(page, oldKeys, oldBibliographyPage, newKeys, newBibliographyPage)) {
+        return false;
+      }
+      save();
+      return true;
+    } finally {
+      lock.unlock();
     }
   }
 
@@ -0,0 +1,96 @@
+package org.projectsforge.xwiki.booktools.mapping;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import org.xwiki.model.reference.DocumentReference;
+
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * The locks used to serialize the updates of an index. The locks are striped
+ * by index reference : the updates of the same index are done one at a time
+ * while the indexes of independent books (or wikis) are updated in parallel.
+ * Two indexes may share a stripe, they are then updated one at a time.
+ * <p>
+ * The acquisitions and the contention are counted to monitor the waiting time.
+ */
+public final class IndexLocks {
+
+  /** The number of stripes. */
+  private static final int STRIPES = 256;
+
+  /** The locks. */
+  private static final Striped<Lock> LOCKS = Striped.lazyWeakLock(STRIPES);
+
+  /** The number of acquisitions. */
+  private static final AtomicLong ACQUISITIONS = new AtomicLong();
+
+  /** The number of acquisitions which waited for another update. */
+  private static final AtomicLong CONTENTIONS = new AtomicLong();
+
+  /** The longest waiting time in nanoseconds. */
+  private static final AtomicLong MAX_WAITING_TIME = new AtomicLong();
+
+  /** The total waiting time in nanoseconds. */
+  private static final AtomicLong WAITING_TIME = new AtomicLong();
+
+  /**
+   * Gets the lock statistics : the number of acquisitions, the number of
+   * contended acquisitions, the total and the longest waiting time (in
+   * milliseconds).
+   *
+   * @return the statistics
+   */
+  public static Map<String, Long> getStatistics() {
+    Map<String, Long> statistics = new LinkedHashMap<>();
+    statistics.put("acquisitions", ACQUISITIONS.get());
+    statistics.put("contentions", CONTENTIONS.get());
+    statistics.put("waitingTime", TimeUnit.NANOSECONDS.toMillis(WAITING_TIME.get()));
+    statistics.put("maxWaitingTime", TimeUnit.NANOSECONDS.toMillis(MAX_WAITING_TIME.get()));
+    return statistics;
+  }
+
+  /**
+   * Acquire the lock of an index. The caller must release the returned lock.
+   *
+   * @param reference
+   *          the index document reference
+   * @return the acquired lock
+   */
+  public static Lock lock(DocumentReference reference) {
+    Lock lock = LOCKS.get(reference);
+    ACQUISITIONS.incrementAndGet();
+    if (!lock.tryLock()) {
+      // another update of the index (or of an index sharing the stripe) is
+      // running
+      CONTENTIONS.incrementAndGet();
+      long start = System.nanoTime();
+      lock.lock();
+      long waitingTime = System.nanoTime() - start;
+      WAITING_TIME.addAndGet(waitingTime);
+      MAX_WAITING_TIME.accumulateAndGet(waitingTime, Math::max);
+    }
+    return lock;
+  }
+
+  /**
+   * Reset the lock statistics.
+   */
+  public static void resetStatistics() {
+    ACQUISITIONS.set(0);
+    CONTENTIONS.set(0);
+    WAITING_TIME.set(0);
+    MAX_WAITING_TIME.set(0);
+  }
+
+  /**
+   * Instantiates a new index locks.
+   */
+  private IndexLocks() {
+  }
+
+}
@@ -0,0 +1,139 @@
+package org.projectsforge.xwiki.booktools.mapping;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xwiki.model.reference.DocumentReference;
+
+import de.undercouch.citeproc.csl.CSLItemData;
+
+/**
+ * An immutable snapshot of the content of an index : the ordered keys, the
+ * references of the resolved entries, the entries and the bibliography page. A
+ * snapshot is published after each rebuild (or incremental update) of the index
+ * so that the readers never block on the index lock and always see a
+ * consistent state.
+ * <p>
+ * Each snapshot gets a distinct generation number, increasing with the
+ * publications, which identifies the content of the index (e.g. as a key of the
+ * caches derived from it).
+ */
+public final class IndexSnapshot {
+
+  /** The last generation number. */
+  private static final AtomicLong GENERATION = new AtomicLong();
+
+  /** The bibliography page. */
+  private final String bibliographyPage;
+
+  /** The entries. */
+  private final List<CSLItemData> entries;
+
+  /** The generation. */
+  private final long generation;
+
+  /** The index document reference. */
+  private final DocumentReference indexReference;
+
+  /** The keys in order. */
+  private final List<String> keys;
+
+  /** The references of the entry documents by key. */
+  private final Map<String, DocumentReference> references;
+
+  /**
+   * Instantiates a new index snapshot with a new generation number.
+   *
+   * @param indexReference
+   *          the index document reference
+   * @param keys
+   *          the keys in order
+   * @param references
+   *          the references of the entry documents by key
+   * @param entries
+   *          the entries
+   * @param bibliographyPage
+   *          the bibliography page
+   */
+  IndexSnapshot(DocumentReference indexReference, List<String> keys, Map<String, DocumentReference> references,
+      List<CSLItemData> entries, String bibliographyPage) {
+    this.generation = GENERATION.incrementAndGet();
+    this.indexReference = indexReference;
+    this.keys = Collections.unmodifiableList(new ArrayList<>(keys));
+    this.references = Collections.unmodifiableMap(new HashMap<>(references));
+    this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+    this.bibliographyPage = bibliographyPage;
+  }
+
+  /**
+   * Gets the bibliography page.
+   *
+   * @return the bibliography page
+   */
+  public String getBibliographyPage() {
+    return bibliographyPage;
+  }
+
+  /**
+   * Gets the entries.
+   *
+   * @return the entries
+   */
+  public List<CSLItemData> getEntries() {
+    return entries;
+  }
+
+  /**
+   * Gets the generation.
+   *
+   * @return the generation
+   */
+  public long getGeneration() {
+    return generation;
+  }
+
+  /**
+   * Gets the index document reference.
+   *
+   * @return the index document reference
+   */
+  public DocumentReference getIndexReference() {
+    return indexReference;
+  }
+
+  /**
+   * Gets the keys in order.
+   *
+   * @return the keys
+   */
+  public List<String> getKeys() {
+    return keys;
+  }
+
+  /**
+   * Gets the reference of the entry document of a key.
+   *
+   * @param key
+   *          the key
+   * @return the entry document reference or null if the key is not resolved (or
+   *         if the index is stored with a previous encoding)
+   */
+  public DocumentReference getReference(String key) {
+    return references.get(key);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return "IndexSnapshot [index=" + indexReference + ", generation=" + generation + ", keys=" + keys.size() + "]";
+  }
+
+}
@@ -6,9 +6,11 @@ import java.util.List;
 import org.projectsforge.xwiki.booktools.Constants;
 import org.projectsforge.xwiki.booktools.Utils;
 import org.projectsforge.xwiki.booktools.mapping.DocumentWalker.Node;
+import org.projectsforge.xwiki.booktools.service.BookToolsService;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.EntityReference;
 
+import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
 
 /**
@@ -29,6 +31,37 @@ public class LocalIndex {
   /** The Constant FIELD_KEYS. */
   public static final String FIELD_KEYS = "keys";
 
+  /**
+   * Gets the keys of the local index held by a document without wrapping it
+   * (e.g. a previous version of a document).
+   *
+   * @param service
+   *          the service
+   * @param document
+   *          the document (can be null)
+   * @return the keys
+   */
+  public static List<String> getKeys(BookToolsService service, XWikiDocument document) {
+    BaseObject object = document == null ? null : document.getXObject(CLASS_REFERENCE);
+    if (object == null) {
+      return Collections.emptyList();
+    }
+    return Utils.deserializeKeys(service, object.getLargeStringValue(FIELD_KEYS));
+  }
+
+  /**
+   * Tests if a document is a bibliography page without wrapping it (e.g. a
+   * previous version of a document).
+   *
+   * @param document
+   *          the document (can be null)
+   * @return true if the document is a bibliography page
+   */
+  public static boolean isBibliographyPage(XWikiDocument document) {
+    BaseObject object = document == null ? null : document.getXObject(CLASS_REFERENCE);
+    return object != null && object.getIntValue(FIELD_IS_BIBLIOGRAPHY_PAGE) == 1;
+  }
+
   /** The dirty. */
   private boolean dirty;
 
@@ -88,6 +121,15 @@ public class LocalIndex {
     return keys;
   }
 
+  /**
+   * Checks if the local index differs from the saved one.
+   *
+   * @return true, if the local index must be saved
+   */
+  public boolean isDirty() {
+    return dirty;
+  }
+
   /**
    * Save.
    */
@@ -103,11 +145,8 @@ public class LocalIndex {
         xobject.setIntValue(FIELD_IS_BIBLIOGRAPHY_PAGE, isBibliographyPage ? 1 : 0);
         xobject.setLargeStringValue(FIELD_KEYS, Utils.serializeKeys(node.getService(), keys));
       }
+      // IndexUpdaterListener is triggered and applies the change to the index
       node.save();
-      // IndexUpdaterListener is triggered so index is marked as dirty
-      if (index != null) {
-        index.setExpired(true);
-      }
     }
   }
 
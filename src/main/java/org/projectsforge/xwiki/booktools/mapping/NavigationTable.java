@@ -0,0 +1,355 @@
+package org.projectsforge.xwiki.booktools.mapping;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.projectsforge.xwiki.booktools.mapping.DocumentWalker.Node;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * The navigation table of a book : the pages of the book (hidden pages
+ * excluded) in pre-order with their parent, depth and siblings. All lookups
+ * are done in constant time without loading any document.
+ * <p>
+ * The table is shared between requests : readers always see a consistent state
+ * while a refresh builds a new state. When a page is created, moved or
+ * reordered, only the subtree of its parent is walked again.
+ */
+public class NavigationTable {
+
+  /**
+   * An immutable state of the table.
+   */
+  private static class State {
+
+    /** The depth of each page (0 for the root). */
+    private final int[] depths;
+
+    /** The position of the parent of each page (-1 for the root). */
+    private final int[] parents;
+
+    /** The position of each page. */
+    private final Map<DocumentReference, Integer> positions;
+
+    /** The position of the previous sibling of each page (-1 if none). */
+    private final int[] previousSiblings;
+
+    /** The pages in pre-order. */
+    private final List<DocumentReference> references;
+
+    /** The size of the subtree of each page (the page included). */
+    private final int[] sizes;
+
+    /**
+     * Instantiates a new state.
+     *
+     * @param references
+     *          the pages in pre-order
+     * @param pageDepths
+     *          the depths of the pages
+     */
+    State(List<DocumentReference> references, List<Integer> pageDepths) {
+      int size = references.size();
+      this.references = Collections.unmodifiableList(references);
+      this.positions = new HashMap<>(size * 2);
+      this.depths = new int[size];
+      this.parents = new int[size];
+      this.previousSiblings = new int[size];
+      this.sizes = new int[size];
+
+      // the stack holds the open ancestors, lastChild the last child seen of
+      // each page
+      Deque<Integer> stack = new ArrayDeque<>();
+      int[] lastChild = new int[size];
+      for (int i = 0; i < size; ++i) {
+        positions.put(references.get(i), i);
+        depths[i] = pageDepths.get(i);
+        sizes[i] = 1;
+        lastChild[i] = -1;
+        while (!stack.isEmpty() && depths[stack.peek()] >= depths[i]) {
+          int closed = stack.pop();
+          if (!stack.isEmpty()) {
+            sizes[stack.peek()] += sizes[closed];
+          }
+        }
+        parents[i] = stack.isEmpty() ? -1 : stack.peek();
+        if (parents[i] == -1) {
+          previousSiblings[i] = -1;
+        } else {
+          previousSiblings[i] = lastChild[parents[i]];
+          lastChild[parents[i]] = i;
+        }
+        stack.push(i);
+      }
+      while (!stack.isEmpty()) {
+        int closed = stack.pop();
+        if (!stack.isEmpty()) {
+          sizes[stack.peek()] += sizes[closed];
+        }
+      }
+    }
+  }
+
+  /**
+   * Walk a subtree in pre-order.
+   *
+   * @param node
+   *          the root of the subtree
+   * @param depth
+   *          the depth of the root of the subtree
+   * @param references
+   *          the pages in pre-order
+   * @param depths
+   *          the depths of the pages
+   */
+  private static void walk(Node node, int depth, List<DocumentReference> references, List<Integer> depths) {
+    node.traverse().visit((page, relativeDepth) -> {
+      references.add(page.getDocumentReference());
+      depths.add(depth + relativeDepth);
+    });
+  }
+
+  /** The pages whose subtree must be walked again. */
+  private final Set<DocumentReference> dirty = ConcurrentHashMap.newKeySet();
+
+  /** The root of the book. */
+  private final DocumentReference root;
+
+  /** The current state. */
+  private volatile State state;
+
+  /**
+   * Instantiates a new navigation table.
+   *
+   * @param root
+   *          the root of the book
+   */
+  public NavigationTable(DocumentReference root) {
+    this.root = root;
+  }
+
+  /**
+   * Tests if a page belongs to the table.
+   *
+   * @param reference
+   *          the page reference
+   * @return true, if the page belongs to the table
+   */
+  public boolean contains(DocumentReference reference) {
+    State current = state;
+    return current != null && current.positions.containsKey(reference);
+  }
+
+  /**
+   * Gets a page from its position.
+   *
+   * @param current
+   *          the state
+   * @param position
+   *          the position
+   * @return the page or null if the position is invalid
+   */
+  private DocumentReference get(State current, int position) {
+    if (position < 0 || position >= current.references.size()) {
+      return null;
+    }
+    return current.references.get(position);
+  }
+
+  /**
+   * Gets the depth of a page in the book.
+   *
+   * @param reference
+   *          the page reference
+   * @return the depth (0 for the root) or -1 if the page does not belong to the
+   *         book
+   */
+  public int getDepth(DocumentReference reference) {
+    State current = state;
+    Integer position = current.positions.get(reference);
+    return position == null ? -1 : current.depths[position];
+  }
+
+  /**
+   * Gets the next page in the book (pre-order).
+   *
+   * @param reference
+   *          the page reference
+   * @return the next page or null if it is the last page of the book
+   */
+  public DocumentReference getNext(DocumentReference reference) {
+    State current = state;
+    Integer position = current.positions.get(reference);
+    return position == null ? null : get(current, position + 1);
+  }
+
+  /**
+   * Gets the next sibling of a page.
+   *
+   * @param reference
+   *          the page reference
+   * @return the next sibling or null if there is none
+   */
+  public DocumentReference getNextSibling(DocumentReference reference) {
+    State current = state;
+    Integer position = current.positions.get(reference);
+    if (position == null || current.parents[position] == -1) {
+      return null;
+    }
+    int next = position + current.sizes[position];
+    if (next < current.references.size() && current.parents[next] == current.parents[position]) {
+      return current.references.get(next);
+    }
+    return null;
+  }
+
+  /**
+   * Gets the pages in pre-order.
+   *
+   * @return the pages
+   */
+  public List<DocumentReference> getPages() {
+    return state.references;
+  }
+
+  /**
+   * Gets the parent of a page in the book.
+   *
+   * @param reference
+   *          the page reference
+   * @return the parent or null for the root
+   */
+  public DocumentReference getParent(DocumentReference reference) {
+    State current = state;
+    Integer position = current.positions.get(reference);
+    return position == null ? null : get(current, current.parents[position]);
+  }
+
+  /**
+   * Gets the position of a page in the book.
+   *
+   * @param reference
+   *          the page reference
+   * @return the position or -1 if the page does not belong to the book
+   */
+  public int getPosition(DocumentReference reference) {
+    Integer position = state.positions.get(reference);
+    return position == null ? -1 : position;
+  }
+
+  /**
+   * Gets the previous sibling of a page.
+   *
+   * @param reference
+   *          the page reference
+   * @return the previous sibling or null if there is none
+   */
+  public DocumentReference getPreviousSibling(DocumentReference reference) {
+    State current = state;
+    Integer position = current.positions.get(reference);
+    return position == null ? null : get(current, current.previousSiblings[position]);
+  }
+
+  /**
+   * Gets the root of the book.
+   *
+   * @return the root
+   */
+  public DocumentReference getRoot() {
+    return root;
+  }
+
+  /**
+   * Checks if the table must be refreshed (it is not built yet or a change has
+   * been reported since the last refresh).
+   *
+   * @return true, if the table is outdated
+   */
+  public boolean isOutdated() {
+    return state == null || !dirty.isEmpty();
+  }
+
+  /**
+   * Mark the table as outdated after a change on a document. The subtree of the
+   * nearest ancestor of the document belonging to the table will be walked
+   * again on the next refresh.
+   *
+   * @param reference
+   *          the reference of the created, updated or deleted document
+   */
+  public void invalidate(DocumentReference reference) {
+    State current = state;
+    if (current == null) {
+      return;
+    }
+    for (DocumentReference parent = DocumentWalker.getParentReference(reference); parent != null; parent = DocumentWalker
+        .getParentReference(parent)) {
+      if (current.positions.containsKey(parent)) {
+        dirty.add(parent);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Build the table or apply the pending changes by walking only the outdated
+   * subtrees.
+   *
+   * @param walker
+   *          the walker used to get the children of the pages (a fresh walker
+   *          since the table is shared between requests)
+   */
+  public synchronized void refresh(DocumentWalker walker) {
+    if (state == null) {
+      List<DocumentReference> references = new ArrayList<>();
+      List<Integer> depths = new ArrayList<>();
+      walk(walker.getNode(root), 0, references, depths);
+      dirty.clear();
+      state = new State(references, depths);
+      return;
+    }
+
+    if (dirty.isEmpty()) {
+      return;
+    }
+
+    List<DocumentReference> references = new ArrayList<>(state.references);
+    List<Integer> depths = new ArrayList<>();
+    for (int depth : state.depths) {
+      depths.add(depth);
+    }
+
+    for (DocumentReference reference : new ArrayList<>(dirty)) {
+      dirty.remove(reference);
+      int position = references.indexOf(reference);
+      if (position == -1) {
+        // already removed while walking another subtree
+        continue;
+      }
+      int depth = depths.get(position);
+      int end = position + 1;
+      while (end < references.size() && depths.get(end) > depth) {
+        end++;
+      }
+
+      List<DocumentReference> segmentReferences = new ArrayList<>();
+      List<Integer> segmentDepths = new ArrayList<>();
+      walk(walker.getNode(reference), depth, segmentReferences, segmentDepths);
+
+      references.subList(position, end).clear();
+      references.addAll(position, segmentReferences);
+      depths.subList(position, end).clear();
+      depths.addAll(position, segmentDepths);
+    }
+
+    state = new State(references, depths);
+  }
+
+}
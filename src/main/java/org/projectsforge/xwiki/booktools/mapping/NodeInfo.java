@@ -0,0 +1,118 @@
+package org.projectsforge.xwiki.booktools.mapping;
+
+/**
+ * The lightweight description of a document used by most tree operations. It
+ * is filled from a projection query so that the full document (content,
+ * attachments and objects) is not loaded.
+ */
+public class NodeInfo {
+
+  /** The document holds an entry. */
+  private final boolean entry;
+
+  /** The document is hidden. */
+  private final boolean hidden;
+
+  /** The document holds an index. */
+  private final boolean index;
+
+  /** The document holds a local index. */
+  private final boolean localIndex;
+
+  /** The order. */
+  private final int order;
+
+  /** The title. */
+  private final String title;
+
+  /**
+   * Instantiates a new node info.
+   *
+   * @param title
+   *          the title
+   * @param order
+   *          the order
+   * @param hidden
+   *          the document is hidden
+   * @param index
+   *          the document holds an index
+   * @param localIndex
+   *          the document holds a local index
+   * @param entry
+   *          the document holds an entry
+   */
+  public NodeInfo(String title, int order, boolean hidden, boolean index, boolean localIndex, boolean entry) {
+    this.title = title;
+    this.order = order;
+    this.hidden = hidden;
+    this.index = index;
+    this.localIndex = localIndex;
+    this.entry = entry;
+  }
+
+  /**
+   * Gets the order.
+   *
+   * @return the order
+   */
+  public int getOrder() {
+    return order;
+  }
+
+  /**
+   * Gets the title.
+   *
+   * @return the title
+   */
+  public String getTitle() {
+    return title;
+  }
+
+  /**
+   * Checks if the document holds an entry.
+   *
+   * @return true, if the document holds an entry
+   */
+  public boolean isEntry() {
+    return entry;
+  }
+
+  /**
+   * Checks if the document is hidden.
+   *
+   * @return true, if the document is hidden
+   */
+  public boolean isHidden() {
+    return hidden;
+  }
+
+  /**
+   * Checks if the document holds an index.
+   *
+   * @return true, if the document holds an index
+   */
+  public boolean isIndex() {
+    return index;
+  }
+
+  /**
+   * Checks if the document holds a local index.
+   *
+   * @return true, if the document holds a local index
+   */
+  public boolean isLocalIndex() {
+    return localIndex;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return "NodeInfo [title=" + title + ", order=" + order + ", hidden=" + hidden + ", index=" + index
+        + ", localIndex=" + localIndex + ", entry=" + entry + "]";
+  }
+
+}
@@ -5,6 +5,7 @@ import org.projectsforge.xwiki.booktools.mapping.DocumentWalker.Node;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.EntityReference;
 
+import com.xpn.xwiki.doc.XWikiDocument;
 import com.xpn.xwiki.objects.BaseObject;
 
 /**
@@ -39,6 +40,18 @@ public class Order {
     this.xobject = node.getXObject(CLASS_REFERENCE);
   }
 
+  /**
+   * Gets the order of a document without wrapping it.
+   *
+   * @param document
+   *          the document
+   * @return the order (Integer.MAX_VALUE if the document is not ordered)
+   */
+  public static int getOrder(XWikiDocument document) {
+    BaseObject xobject = document == null ? null : document.getXObject(CLASS_REFERENCE);
+    return xobject == null ? Integer.MAX_VALUE : xobject.getIntValue(FIELD_ORDER, Integer.MAX_VALUE);
+  }
+
   /**
    * Gets the order.
    *
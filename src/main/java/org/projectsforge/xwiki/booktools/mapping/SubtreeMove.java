@@ -0,0 +1,335 @@
+package org.projectsforge.xwiki.booktools.mapping;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.projectsforge.xwiki.booktools.mapping.DocumentWalker.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.job.event.status.JobProgressManager;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.security.authorization.Right;
+
+import com.xpn.xwiki.XWikiException;
+
+/**
+ * The move of pages (with their subtrees) as children of a page. The new
+ * references of all the moved pages are computed at once (in pre-order), then
+ * each page is renamed and saved once with its new parent and order. Only the
+ * references of the moved pages are invalidated.
+ */
+public class SubtreeMove {
+
+  /**
+   * The move of a single page.
+   */
+  public static class Step {
+
+    /** The order to set (null to keep the order). */
+    private final Integer order;
+
+    /** The new parent reference. */
+    private final DocumentReference parent;
+
+    /** The source reference. */
+    private final DocumentReference source;
+
+    /** The target reference. */
+    private final DocumentReference target;
+
+    /**
+     * Instantiates a new step.
+     *
+     * @param source
+     *          the source reference
+     * @param target
+     *          the target reference
+     * @param parent
+     *          the new parent reference
+     * @param order
+     *          the order to set (null to keep the order)
+     */
+    Step(DocumentReference source, DocumentReference target, DocumentReference parent, Integer order) {
+      this.source = source;
+      this.target = target;
+      this.parent = parent;
+      this.order = order;
+    }
+
+    /**
+     * Gets the order to set.
+     *
+     * @return the order or null to keep the order
+     */
+    public Integer getOrder() {
+      return order;
+    }
+
+    /**
+     * Gets the new parent reference.
+     *
+     * @return the new parent reference
+     */
+    public DocumentReference getParent() {
+      return parent;
+    }
+
+    /**
+     * Gets the source reference.
+     *
+     * @return the source reference
+     */
+    public DocumentReference getSource() {
+      return source;
+    }
+
+    /**
+     * Gets the target reference.
+     *
+     * @return the target reference
+     */
+    public DocumentReference getTarget() {
+      return target;
+    }
+
+    /**
+     * Checks if the page must be renamed.
+     *
+     * @return true, if the page must be renamed
+     */
+    public boolean isRename() {
+      return !source.equals(target);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+      return "Step [source=" + source + ", target=" + target + ", order=" + order + "]";
+    }
+  }
+
+  /** The logger. */
+  private static Logger logger = LoggerFactory.getLogger(SubtreeMove.class);
+
+  /**
+   * Compute the reference of a page moved as a child of another page.
+   *
+   * @param parentReference
+   *          the new parent reference (a space WebHome)
+   * @param reference
+   *          the page reference
+   * @return the new reference
+   */
+  public static DocumentReference getTargetReference(DocumentReference parentReference,
+      DocumentReference reference) {
+    if ("WebHome".equals(reference.getName())) {
+      // parent reference : a.b.c.WebHome
+      // page reference e.f.WebHome => a.b.c.f.WebHome
+      return new DocumentReference(new EntityReference("WebHome", EntityType.DOCUMENT,
+          new EntityReference(reference.getParent().getName(), EntityType.SPACE, parentReference.getParent())));
+    } else {
+      // parent reference : a.b.c.WebHome
+      // page reference : e.f => a.b.c.f
+      return new DocumentReference(
+          new EntityReference(reference.getName(), EntityType.DOCUMENT, parentReference.getParent()));
+    }
+  }
+
+  /** The steps in pre-order. */
+  private final List<Step> steps = new ArrayList<>();
+
+  /** False if some pages can not be moved. */
+  private boolean valid = true;
+
+  /** The walker. */
+  private final DocumentWalker walker;
+
+  /**
+   * Plan the move of pages as children of a page.
+   *
+   * @param parent
+   *          the new parent
+   * @param children
+   *          the pages to move (with their subtrees)
+   * @param reorder
+   *          true to set the order of the pages according to their position in
+   *          the list
+   */
+  public SubtreeMove(Node parent, List<Node> children, boolean reorder) {
+    this.walker = parent.getWalker();
+    DocumentReference parentReference = parent.getDocumentReference();
+
+    if (!"WebHome".equals(parentReference.getName())) {
+      // parent is not a space, we can not move page
+      valid = false;
+      return;
+    }
+
+    int counter = 0;
+    for (Node child : children) {
+      Integer order = reorder ? counter++ : null;
+      DocumentReference childReference = child.getDocumentReference();
+      if (childReference.equals(parentReference) || isAncestor(childReference, parentReference)) {
+        // a page can not be moved in its own subtree
+        valid = false;
+      } else {
+        plan(parentReference, child, order);
+      }
+    }
+  }
+
+  /**
+   * Execute the move.
+   *
+   * @param progressManager
+   *          the progress manager used to report the progress (can be null)
+   * @param progressSource
+   *          the source of the progress events
+   * @return true, if all the pages have been moved
+   */
+  public boolean execute(JobProgressManager progressManager, Object progressSource) {
+    // nothing is moved if a page can not be moved
+    if (!valid) {
+      return false;
+    }
+
+    // check the rights first so that nothing is moved if a page can not be
+    // moved
+    for (Step step : steps) {
+      if (step.isRename()
+          && !(walker.getNode(step.source).canDelete() && walker.hasAccess(Right.EDIT, step.target))) {
+        logger.warn("Not allowed to move {} to {}", step.source, step.target);
+        return false;
+      }
+    }
+
+    boolean result = true;
+    if (progressManager != null) {
+      progressManager.pushLevelProgress(steps.size(), progressSource);
+    }
+    try {
+      for (Step step : steps) {
+        if (progressManager != null) {
+          progressManager.startStep(progressSource);
+        }
+        try {
+          result &= apply(step);
+        } finally {
+          if (progressManager != null) {
+            progressManager.endStep(progressSource);
+          }
+        }
+      }
+    } finally {
+      if (progressManager != null) {
+        progressManager.popLevelProgress(progressSource);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Apply a step : rename the page, set the parent and the order and save the
+   * page once.
+   *
+   * @param step
+   *          the step
+   * @return true, if successful
+   */
+  private boolean apply(Step step) {
+    Node node = walker.getNode(step.source);
+    if (step.isRename()) {
+      try {
+        node.getXWikiDocument().rename(step.target, node.getService().getContext());
+      } catch (XWikiException ex) {
+        logger.warn("An error occurred while moving " + step.source + " to " + step.target, ex);
+        return false;
+      }
+      // only the moved references are outdated
+      walker.invalidate(step.source);
+      walker.invalidate(step.target);
+      node = walker.getNode(step.target);
+      node.getXWikiDocument().setParentReference(step.parent);
+    }
+    if (step.order != null) {
+      node.setOrder(step.order);
+    }
+    if (step.isRename() || step.order != null) {
+      node.save();
+    }
+    return true;
+  }
+
+  /**
+   * Gets the steps in pre-order.
+   *
+   * @return the steps
+   */
+  public List<Step> getSteps() {
+    return Collections.unmodifiableList(steps);
+  }
+
+  /**
+   * Checks if a page is an ancestor of another one.
+   *
+   * @param ancestor
+   *          the supposed ancestor
+   * @param reference
+   *          the page reference
+   * @return true, if the page is an ancestor
+   */
+  private boolean isAncestor(DocumentReference ancestor, DocumentReference reference) {
+    for (DocumentReference current = DocumentWalker.getParentReference(
+        reference); current != null; current = DocumentWalker.getParentReference(current)) {
+      if (current.equals(ancestor)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks if all the pages can be moved.
+   *
+   * @return true, if all the pages can be moved
+   */
+  public boolean isValid() {
+    return valid;
+  }
+
+  /**
+   * Plan the move of a page and its subtree.
+   *
+   * @param parentReference
+   *          the new parent reference
+   * @param node
+   *          the page
+   * @param order
+   *          the order to set (null to keep the order)
+   */
+  private void plan(DocumentReference parentReference, Node node, Integer order) {
+    DocumentReference source = node.getDocumentReference();
+    DocumentReference target;
+    if (parentReference.equals(DocumentWalker.getParentReference(source))) {
+      // already a child : the subtree does not move
+      target = source;
+    } else {
+      target = getTargetReference(parentReference, source);
+    }
+    steps.add(new Step(source, target, parentReference, order));
+    if (!target.equals(source)) {
+      // the hidden pages are moved with their parent
+      for (Node child : node.getChildren(true)) {
+        plan(target, child, null);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,373 @@
+package org.projectsforge.xwiki.booktools.mapping;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.projectsforge.xwiki.booktools.mapping.DocumentWalker.Node;
+
+/**
+ * A lazy depth-first (pre-order) traversal of a subtree. The children of a node
+ * are only fetched when the traversal reaches it, so that a caller can stop
+ * early without loading the whole subtree. The traversal can be limited in
+ * depth, pruned with predicates and include or exclude hidden pages.
+ * <p>
+ * A traversal can be consumed several times. The nodes can be processed in
+ * parallel (with {@link #parallelStream()}) according to the thread-safety
+ * contract of the {@link DocumentWalker} : the worker threads must hold an
+ * XWiki context.
+ */
+public class TreeTraversal implements Iterable<Node> {
+
+  /**
+   * A node waiting to be visited with its depth.
+   */
+  private static class Pending {
+
+    /** The depth. */
+    private final int depth;
+
+    /** The children have already been pushed (by a split). */
+    private boolean expanded;
+
+    /** The node. */
+    private final Node node;
+
+    /**
+     * Instantiates a new pending node.
+     *
+     * @param node
+     *          the node
+     * @param depth
+     *          the depth
+     */
+    Pending(Node node, int depth) {
+      this.node = node;
+      this.depth = depth;
+    }
+  }
+
+  /**
+   * The spliterator over the traversal. The top of the stack holds the next
+   * node to visit, a split hands the nodes at the top of the stack (which come
+   * first in pre-order) to the new spliterator. A stack holding a single node
+   * is expanded first : the node and the first half of its children subtrees
+   * are handed to the new spliterator. The size of the subtrees is unknown
+   * until they are walked : the pending nodes are used as estimate.
+   */
+  private class TraversalSpliterator implements Spliterator<Node> {
+
+    /** The nodes waiting to be visited. */
+    private final Deque<Pending> stack;
+
+    /**
+     * Instantiates a new traversal spliterator.
+     *
+     * @param stack
+     *          the nodes waiting to be visited
+     */
+    TraversalSpliterator(Deque<Pending> stack) {
+      this.stack = stack;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.Spliterator#characteristics()
+     */
+    @Override
+    public int characteristics() {
+      return ORDERED | DISTINCT | NONNULL;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.Spliterator#estimateSize()
+     */
+    @Override
+    public long estimateSize() {
+      return stack.size();
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.Spliterator#tryAdvance(java.util.function.Consumer)
+     */
+    @Override
+    public boolean tryAdvance(Consumer<? super Node> action) {
+      Node next = advance(stack);
+      if (next == null) {
+        return false;
+      }
+      action.accept(next);
+      return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.util.Spliterator#trySplit()
+     */
+    @Override
+    public Spliterator<Node> trySplit() {
+      if (stack.size() == 1) {
+        // push the children after the node so that its subtree can be split
+        Pending top = stack.peekFirst();
+        if (!top.expanded) {
+          expand(top).forEach(stack::addLast);
+        }
+      }
+      if (stack.size() < 2) {
+        return null;
+      }
+      Deque<Pending> prefix = new ArrayDeque<>();
+      int count = stack.size() / 2;
+      for (int i = 0; i < count; ++i) {
+        prefix.addLast(stack.pollFirst());
+      }
+      return new TraversalSpliterator(prefix);
+    }
+  }
+
+  /** Include the hidden pages ?. */
+  private boolean includeHidden;
+
+  /** The maximum depth (the root has a depth of 0). */
+  private int maxDepth = Integer.MAX_VALUE;
+
+  /** The predicate used to skip a node and its subtree. */
+  private Predicate<Node> prune = node -> false;
+
+  /** The root. */
+  private final Node root;
+
+  /** Skip the pages the current user can not view ?. */
+  private boolean visibleOnly;
+
+  /**
+   * Instantiates a new tree traversal.
+   *
+   * @param root
+   *          the root of the subtree
+   */
+  public TreeTraversal(Node root) {
+    this.root = root;
+  }
+
+  /**
+   * Visit the next node of the stack and push its children.
+   *
+   * @param stack
+   *          the nodes waiting to be visited
+   * @return the next node or null if the traversal is over
+   */
+  private Node advance(Deque<Pending> stack) {
+    Pending current = advancePending(stack);
+    return current == null ? null : current.node;
+  }
+
+  /**
+   * Visit the next pending node of the stack and push its children.
+   *
+   * @param stack
+   *          the nodes waiting to be visited
+   * @return the next pending node or null if the traversal is over
+   */
+  private Pending advancePending(Deque<Pending> stack) {
+    Pending current = stack.pollFirst();
+    if (current == null) {
+      return null;
+    }
+    if (!current.expanded) {
+      List<Pending> children = expand(current);
+      for (int i = children.size() - 1; i >= 0; --i) {
+        stack.addFirst(children.get(i));
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Gets the children of a pending node which must be visited and mark it as
+   * expanded.
+   *
+   * @param pending
+   *          the pending node
+   * @return the children in order
+   */
+  private List<Pending> expand(Pending pending) {
+    pending.expanded = true;
+    List<Pending> results = new ArrayList<>();
+    if (pending.depth < maxDepth) {
+      List<Node> children = pending.node.getChildren(includeHidden);
+      if (visibleOnly) {
+        // the rights of the children are evaluated at once
+        children = pending.node.getWalker().filterVisible(children);
+      }
+      for (Node child : children) {
+        if (!prune.test(child)) {
+          results.add(new Pending(child, pending.depth + 1));
+        }
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Include (or not) the hidden pages. Hidden pages are excluded by default.
+   *
+   * @param include
+   *          include hidden document and space ?
+   * @return this traversal
+   */
+  public TreeTraversal includeHidden(boolean include) {
+    this.includeHidden = include;
+    return this;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.lang.Iterable#iterator()
+   */
+  @Override
+  public Iterator<Node> iterator() {
+    Deque<Pending> stack = start();
+    return new Iterator<Node>() {
+
+      @Override
+      public boolean hasNext() {
+        return !stack.isEmpty();
+      }
+
+      @Override
+      public Node next() {
+        Node next = advance(stack);
+        if (next == null) {
+          throw new NoSuchElementException();
+        }
+        return next;
+      }
+    };
+  }
+
+  /**
+   * Limit the depth of the traversal.
+   *
+   * @param depth
+   *          the maximum depth (0 to visit only the root, 1 for the root and its
+   *          children, ...)
+   * @return this traversal
+   */
+  public TreeTraversal maxDepth(int depth) {
+    this.maxDepth = depth;
+    return this;
+  }
+
+  /**
+   * Gets a parallel stream over the traversal.
+   *
+   * @return the stream
+   */
+  public Stream<Node> parallelStream() {
+    return StreamSupport.stream(spliterator(), true);
+  }
+
+  /**
+   * Skip the nodes (and their subtrees) matching a predicate. Several
+   * predicates can be added, a node is skipped if any of them matches. The root
+   * is never skipped.
+   *
+   * @param predicate
+   *          the predicate
+   * @return this traversal
+   */
+  public TreeTraversal prune(Predicate<Node> predicate) {
+    this.prune = this.prune.or(predicate);
+    return this;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.lang.Iterable#spliterator()
+   */
+  @Override
+  public Spliterator<Node> spliterator() {
+    return new TraversalSpliterator(start());
+  }
+
+  /**
+   * Start a traversal.
+   *
+   * @return the initial stack
+   */
+  private Deque<Pending> start() {
+    if (maxDepth > 1) {
+      // a deep traversal walks many spaces => load the subtree at once
+      root.loadSubtreeIfUnknown();
+    }
+    Deque<Pending> stack = new ArrayDeque<>();
+    stack.addFirst(new Pending(root, 0));
+    return stack;
+  }
+
+  /**
+   * Gets a sequential stream over the traversal.
+   *
+   * @return the stream
+   */
+  public Stream<Node> stream() {
+    return StreamSupport.stream(spliterator(), false);
+  }
+
+  /**
+   * Skip the pages (and their subtrees) the current user can not view. The
+   * rights of the children of a page are evaluated in batch.
+   *
+   * @return this traversal
+   */
+  public TreeTraversal visibleOnly() {
+    this.visibleOnly = true;
+    return this;
+  }
+
+  /**
+   * Visit the nodes of the traversal in pre-order with their depth (relative
+   * to the root).
+   *
+   * @param visitor
+   *          the visitor
+   */
+  public void visit(ObjIntConsumer<Node> visitor) {
+    Deque<Pending> stack = start();
+    for (Pending current = advancePending(stack); current != null; current = advancePending(stack)) {
+      visitor.accept(current.node, current.depth);
+    }
+  }
+
+  /**
+   * Collect the nodes of the traversal.
+   *
+   * @return the nodes in pre-order
+   */
+  public List<Node> toList() {
+    List<Node> results = new ArrayList<>();
+    for (Node node : this) {
+      results.add(node);
+    }
+    return results;
+  }
+
+}
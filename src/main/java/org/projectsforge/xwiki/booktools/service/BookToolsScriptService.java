@@ -1,5 +1,6 @@
 package org.projectsforge.xwiki.booktools.service;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -11,6 +12,7 @@ import org.projectsforge.xwiki.booktools.Error;
 import org.projectsforge.xwiki.booktools.mapping.DocumentWalker;
 import org.projectsforge.xwiki.booktools.mapping.Index;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.job.Job;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.WikiReference;
 import org.xwiki.query.QueryException;
@@ -66,6 +68,20 @@ public class BookToolsScriptService implements ScriptService {
     return service.createEntryFromCSLItemData(authorReference, data);
   }
 
+  /**
+   * Creates several entries from CSL item data.
+   *
+   * @param authorReference
+   *          the author reference
+   * @param data
+   *          the data
+   * @return the document references
+   */
+  public List<DocumentReference> createEntriesFromCSLItemData(DocumentReference authorReference,
+      List<CSLItemData> data) {
+    return service.createEntriesFromCSLItemData(authorReference, data);
+  }
+
   /**
    * Find entry reference.
    *
@@ -79,6 +95,19 @@ public class BookToolsScriptService implements ScriptService {
     return service.findEntryReference(index, key);
   }
 
+  /**
+   * Find the references of several entries at once.
+   *
+   * @param index
+   *          the index
+   * @param keys
+   *          the keys
+   * @return the document references by key
+   */
+  public Map<String, DocumentReference> findEntryReferences(Index index, Collection<String> keys) {
+    return service.findEntryReferences(index, keys);
+  }
+
   /**
    * Find entry reference on wiki.
    *
@@ -110,6 +139,24 @@ public class BookToolsScriptService implements ScriptService {
     return service.getDocumentReferencingEntry(entryId);
   }
 
+  /**
+   * Gets a page of the documents of a wiki referencing an entry.
+   *
+   * @param wikiReference
+   *          the wiki reference
+   * @param entryId
+   *          the entry id
+   * @param offset
+   *          the index of the first document to return
+   * @param limit
+   *          the maximum number of documents to return (negative for no limit)
+   * @return the documents referencing entry
+   */
+  public List<DocumentReference> getDocumentReferencingEntry(WikiReference wikiReference, String entryId, int offset,
+      int limit) {
+    return service.getDocumentReferencingEntry(wikiReference, entryId, offset, limit);
+  }
+
   /**
    * Gets the document walker.
    *
@@ -148,6 +195,42 @@ public class BookToolsScriptService implements ScriptService {
     return service.getErrors();
   }
 
+  /**
+   * Gets the statistics of the CSL engine pool.
+   *
+   * @return the statistics
+   */
+  public Map<String, Long> getCSLEngineStatistics() {
+    return service.getCSLEngineStatistics();
+  }
+
+  /**
+   * Gets the statistics of the locks used to serialize the index updates.
+   *
+   * @return the statistics
+   */
+  public Map<String, Long> getIndexLockStatistics() {
+    return service.getIndexLockStatistics();
+  }
+
+  /**
+   * Gets the number of indexes waiting for a rebuild or being rebuilt.
+   *
+   * @return the queue depth
+   */
+  public int getIndexRebuildQueueDepth() {
+    return service.getIndexRebuildQueueDepth();
+  }
+
+  /**
+   * Gets the duration of the last index rebuild.
+   *
+   * @return the duration in milliseconds or -1 if no index has been rebuilt
+   */
+  public long getLastIndexRebuildLatency() {
+    return service.getLastIndexRebuildLatency();
+  }
+
   /**
    * Gets the new annotation reference.
    *
@@ -201,6 +284,23 @@ public class BookToolsScriptService implements ScriptService {
     return service.mergePersons(source, destination);
   }
 
+  /**
+   * Move pages (with their subtrees) as children of a page in a background
+   * job.
+   *
+   * @param parentReference
+   *          the new parent reference
+   * @param childrenReferences
+   *          the references of the pages to move
+   * @param reorder
+   *          true to order the pages according to their position in the list
+   * @return the job or null if it can not be started
+   */
+  public Job moveSubtrees(DocumentReference parentReference, List<DocumentReference> childrenReferences,
+      boolean reorder) {
+    return service.moveSubtrees(parentReference, childrenReferences, reorder);
+  }
+
   /**
    * Parses the bib te X.
    *
@@ -1,9 +1,16 @@
 package org.projectsforge.xwiki.booktools.service;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
 import org.projectsforge.xwiki.booktools.Error;
+import org.projectsforge.xwiki.booktools.cache.CSLEnginePool;
+import org.projectsforge.xwiki.booktools.cache.EntryCache;
+import org.projectsforge.xwiki.booktools.cache.IndexSnapshotCache;
+import org.projectsforge.xwiki.booktools.cache.RenderedBibliography;
+import org.projectsforge.xwiki.booktools.cache.StyleRegistry;
+import org.projectsforge.xwiki.booktools.macro.CiteKey;
 import org.projectsforge.xwiki.booktools.mapping.Configuration;
 import org.projectsforge.xwiki.booktools.mapping.DocumentWalker;
 import org.projectsforge.xwiki.booktools.mapping.Entry;
@@ -11,6 +18,7 @@ import org.projectsforge.xwiki.booktools.mapping.Index;
 import org.projectsforge.xwiki.booktools.mapping.Person;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Role;
+import org.xwiki.job.Job;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.WikiReference;
 
@@ -53,6 +61,19 @@ public interface BookToolsService {
    */
   DocumentReference createEntryFromCSLItemData(DocumentReference authorReference, CSLItemData data);
 
+  /**
+   * Creates several entries from the CSLItemData on the current wiki. The
+   * entries are rendered by chunks with a single CSL engine before being saved.
+   *
+   * @param authorReference
+   *          the author reference
+   * @param data
+   *          the data
+   * @return the document references (null for the entries which can not be
+   *         created)
+   */
+  List<DocumentReference> createEntriesFromCSLItemData(DocumentReference authorReference, List<CSLItemData> data);
+
   /**
    * Create a person in the database populated with the given CSLName.
    *
@@ -64,11 +85,34 @@ public interface BookToolsService {
    */
   DocumentReference createPersonFromCSLName(DocumentReference authorReference, CSLName name);
 
+  /**
+   * Creates a new document walker which is not bound to the current request.
+   * It can be shared by the worker threads of a job (see the thread-safety
+   * contract of {@link DocumentWalker}).
+   *
+   * @return the document walker
+   */
+  DocumentWalker createDocumentWalker();
+
   /**
    * Ensure requirements.
    */
   void ensureRequirements();
 
+  /**
+   * Find the CSL item data of several entries at once. The keys are resolved
+   * like {@link #findEntry(Index, String)} (on the wiki of the index first, then
+   * on the extra wiki sources) with one query per wiki and without loading the
+   * entry documents. The decoded entries are shared through the entry cache.
+   *
+   * @param index
+   *          the index
+   * @param keys
+   *          the keys
+   * @return the CSL item data by key (the keys without entry are missing)
+   */
+  Map<String, CSLItemData> findCSLItemDatas(Index index, Collection<String> keys);
+
   /**
    * Find entry.
    *
@@ -91,6 +135,19 @@ public interface BookToolsService {
    */
   DocumentReference findEntryReference(Index index, String key);
 
+  /**
+   * Find the references of several entries at once. The keys are resolved like
+   * {@link #findEntryReference(Index, String)} with one query per wiki.
+   *
+   * @param index
+   *          the index
+   * @param keys
+   *          the keys
+   * @return the document references by key (the keys without entry are
+   *         missing)
+   */
+  Map<String, DocumentReference> findEntryReferences(Index index, Collection<String> keys);
+
   /**
    * Find entry reference on wiki.
    *
@@ -120,6 +177,30 @@ public interface BookToolsService {
    */
   XWikiContext getContext();
 
+  /**
+   * Gets the rendered bibliography of an index. The bibliography is rendered
+   * once per published content of the index, style and locale.
+   *
+   * @param index
+   *          the index
+   * @return the rendered bibliography or null if it can not be rendered
+   */
+  RenderedBibliography getBibliography(Index index);
+
+  /**
+   * Gets the rendered texts of citations of an index. The citations are
+   * rendered once per published content of the index, style, locale and keys
+   * (they are numbered like the bibliography of the same content), the missing
+   * ones are rendered in order with a single CSL engine.
+   *
+   * @param index
+   *          the index
+   * @param citations
+   *          the keys and locators of each citation
+   * @return the texts of each citation (empty if it can not be rendered)
+   */
+  List<List<String>> getCitations(Index index, List<List<CiteKey>> citations);
+
   /**
    * Gets the CSL object.
    *
@@ -129,6 +210,21 @@ public interface BookToolsService {
    */
   CSL getCSL(Index index);
 
+  /**
+   * Gets the pool of the CSL engines.
+   *
+   * @return the CSL engine pool
+   */
+  CSLEnginePool getCSLEnginePool();
+
+  /**
+   * Gets the statistics of the CSL engine pool : the number of created engines,
+   * the number of borrowings and the number of idle engines.
+   *
+   * @return the statistics
+   */
+  Map<String, Long> getCSLEngineStatistics();
+
   /**
    * Gets the default configuration.
    *
@@ -150,7 +246,25 @@ public interface BookToolsService {
   Map<String, List<DocumentReference>> getDocumentReferencingEntry(String entryId);
 
   /**
-   * Gets the document walker.
+   * Gets a page of the documents of a wiki referencing an entry, ordered by
+   * reference. The documents are looked up in the citation registry, in time
+   * proportional to the number of documents referencing the entry.
+   *
+   * @param wikiReference
+   *          the wiki reference
+   * @param entryId
+   *          the entry citation id
+   * @param offset
+   *          the index of the first document to return
+   * @param limit
+   *          the maximum number of documents to return (negative for no limit)
+   * @return the documents referencing entry
+   */
+  List<DocumentReference> getDocumentReferencingEntry(WikiReference wikiReference, String entryId, int offset,
+      int limit);
+
+  /**
+   * Gets the document walker of the current request.
    *
    * @return the document walker
    */
@@ -165,6 +279,27 @@ public interface BookToolsService {
    */
   Map<String, List<DocumentReference>> getEntryReferencingAPerson(String personRef);
 
+  /**
+   * Gets the shared cache of the decoded entries.
+   *
+   * @return the entry cache
+   */
+  EntryCache getEntryCache();
+
+  /**
+   * Gets the shared cache of the published index snapshots.
+   *
+   * @return the index snapshot cache
+   */
+  IndexSnapshotCache getIndexSnapshotCache();
+
+  /**
+   * Gets the registry of the bibliography styles of the wikis.
+   *
+   * @return the style registry
+   */
+  StyleRegistry getStyleRegistry();
+
   /**
    * Gets the errors.
    *
@@ -172,6 +307,30 @@ public interface BookToolsService {
    */
   List<Error> getErrors();
 
+  /**
+   * Gets the statistics of the locks used to serialize the index updates : the
+   * number of acquisitions, the number of contended acquisitions, the total and
+   * the longest waiting time (in milliseconds).
+   *
+   * @return the statistics
+   */
+  Map<String, Long> getIndexLockStatistics();
+
+  /**
+   * Gets the number of indexes waiting for a rebuild or being rebuilt.
+   *
+   * @return the queue depth
+   */
+  int getIndexRebuildQueueDepth();
+
+  /**
+   * Gets the duration of the last index rebuild, from the first rebuild request
+   * to the save of the index.
+   *
+   * @return the duration in milliseconds or -1 if no index has been rebuilt
+   */
+  long getLastIndexRebuildLatency();
+
   /**
    * Gets the logger.
    *
@@ -231,6 +390,20 @@ public interface BookToolsService {
    */
   boolean mergePersons(String source, String destination);
 
+  /**
+   * Move pages (with their subtrees) as children of a page in a background
+   * job.
+   *
+   * @param parentReference
+   *          the new parent reference
+   * @param childrenReferences
+   *          the references of the pages to move
+   * @param reorder
+   *          true to order the pages according to their position in the list
+   * @return the job or null if it can not be started
+   */
+  Job moveSubtrees(DocumentReference parentReference, List<DocumentReference> childrenReferences, boolean reorder);
+
   /**
    * Parses the BibTeX data.
    *
@@ -21,13 +21,21 @@ package org.projectsforge.xwiki.booktools.service;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.StringJoiner;
+import java.util.UUID;
 import java.util.regex.Pattern;
 
 import javax.inject.Inject;
+import javax.inject.Named;
 import javax.inject.Provider;
 
 import org.apache.commons.lang3.StringUtils;
@@ -35,17 +43,38 @@ import org.projectsforge.xwiki.booktools.Constants;
 import org.projectsforge.xwiki.booktools.Error;
 import org.projectsforge.xwiki.booktools.Utils;
 import org.projectsforge.xwiki.booktools.biblatex.BibLaTeXImporter;
+import org.projectsforge.xwiki.booktools.cache.BibliographyCache;
+import org.projectsforge.xwiki.booktools.cache.CSLEnginePool;
+import org.projectsforge.xwiki.booktools.cache.CachedEntry;
+import org.projectsforge.xwiki.booktools.cache.CitationCache;
+import org.projectsforge.xwiki.booktools.cache.CitationRegistry;
+import org.projectsforge.xwiki.booktools.cache.EntryCache;
+import org.projectsforge.xwiki.booktools.cache.IndexRegistry;
+import org.projectsforge.xwiki.booktools.cache.IndexSnapshotCache;
+import org.projectsforge.xwiki.booktools.cache.NodeCache;
+import org.projectsforge.xwiki.booktools.cache.PooledCSL;
+import org.projectsforge.xwiki.booktools.cache.RenderedBibliography;
+import org.projectsforge.xwiki.booktools.cache.StyleRegistry;
 import org.projectsforge.xwiki.booktools.fields.CSLDateFields;
 import org.projectsforge.xwiki.booktools.fields.CSLNameFields;
 import org.projectsforge.xwiki.booktools.fields.CSLStringFields;
+import org.projectsforge.xwiki.booktools.job.IndexRebuildQueue;
+import org.projectsforge.xwiki.booktools.job.MoveSubtreeJob;
+import org.projectsforge.xwiki.booktools.job.MoveSubtreeJobRequest;
+import org.projectsforge.xwiki.booktools.macro.CiteKey;
 import org.projectsforge.xwiki.booktools.mapping.Configuration;
 import org.projectsforge.xwiki.booktools.mapping.DocumentWalker;
 import org.projectsforge.xwiki.booktools.mapping.Entry;
 import org.projectsforge.xwiki.booktools.mapping.Index;
-import org.projectsforge.xwiki.booktools.mapping.LocalIndex;
+import org.projectsforge.xwiki.booktools.mapping.IndexLocks;
+import org.projectsforge.xwiki.booktools.mapping.IndexSnapshot;
 import org.projectsforge.xwiki.booktools.mapping.Person;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.job.Job;
+import org.xwiki.job.JobException;
+import org.xwiki.job.JobExecutor;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
@@ -70,6 +99,7 @@ import de.undercouch.citeproc.csl.CSLCitation;
 import de.undercouch.citeproc.csl.CSLCitationItem;
 import de.undercouch.citeproc.csl.CSLItemData;
 import de.undercouch.citeproc.csl.CSLName;
+import de.undercouch.citeproc.output.Citation;
 
 /**
  * Implementation of a <tt>BookToolsService</tt> component.
@@ -77,9 +107,23 @@ import de.undercouch.citeproc.csl.CSLName;
 @Component
 public class DefaultBookToolsService implements BookToolsService {
 
+  /**
+   * The configuration key enabling the evaluation of the view right once by
+   * space (to disable with a custom security policy).
+   */
+  private static final String CONFIGURATION_SPACE_RIGHTS_SHORTCUT = "booktools.rights.spaceShortcut";
+
   /** The Constant DOCUMENT_WALKER. */
   private static final String DOCUMENT_WALKER = "booktools-document-walker";
 
+  /** The query resolving entries from their keys. */
+  private static final String ENTRIES_QUERY = String.format(
+      "select doc.fullName, entry.id from Document doc, doc.object(%s) as entry where entry.id in (:keys)",
+      Entry.CLASS_REFERENCE_AS_STRING);
+
+  /** The maximum number of keys bound to a single query. */
+  private static final int QUERY_CHUNK_SIZE = 500;
+
   /** The id regex. */
   private static Pattern ID_REGEX = Pattern.compile("^[a-zA-Z\\.0-9:\\-_]{2,50}$");
 
@@ -94,6 +138,11 @@ public class DefaultBookToolsService implements BookToolsService {
   @Inject
   private Provider<XWikiContext> contextProvider;
 
+  /** The configuration. */
+  @Inject
+  @Named("xwikiproperties")
+  private ConfigurationSource configuration;
+
   /** The document reference resolver. */
   @Inject
   private DocumentReferenceResolver<String> documentReferenceResolver;
@@ -113,6 +162,50 @@ public class DefaultBookToolsService implements BookToolsService {
   @Inject
   private AuthorizationManager authorizationManager;
 
+  /** The shared node cache. */
+  @Inject
+  private NodeCache nodeCache;
+
+  /** The index registry. */
+  @Inject
+  private IndexRegistry indexRegistry;
+
+  /** The job executor. */
+  @Inject
+  private JobExecutor jobExecutor;
+
+  /** The index rebuild queue. */
+  @Inject
+  private IndexRebuildQueue indexRebuildQueue;
+
+  /** The shared entry cache. */
+  @Inject
+  private EntryCache entryCache;
+
+  /** The citation registry. */
+  @Inject
+  private CitationRegistry citationRegistry;
+
+  /** The index snapshot cache. */
+  @Inject
+  private IndexSnapshotCache indexSnapshotCache;
+
+  /** The CSL engine pool. */
+  @Inject
+  private CSLEnginePool cslEnginePool;
+
+  /** The rendered bibliography cache. */
+  @Inject
+  private BibliographyCache bibliographyCache;
+
+  /** The rendered citation cache. */
+  @Inject
+  private CitationCache citationCache;
+
+  /** The style registry. */
+  @Inject
+  private StyleRegistry styleRegistry;
+
   /*
    * (non-Javadoc)
    *
@@ -144,6 +237,42 @@ public class DefaultBookToolsService implements BookToolsService {
     }
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.projectsforge.xwiki.booktools.service.BookToolsService#
+   * createEntriesFromCSLItemData(org.xwiki.model.reference.DocumentReference,
+   * java.util.List)
+   */
+  @Override
+  public synchronized List<DocumentReference> createEntriesFromCSLItemData(DocumentReference authorReference,
+      List<CSLItemData> data) {
+    List<DocumentReference> results = new ArrayList<>();
+    // the new entries are not saved yet : their numbers follow the last one
+    int counter = getLastEntryNumber();
+    for (int i = 0; i < data.size(); i += Entry.RENDER_CHUNK_SIZE) {
+      List<Entry> entries = new ArrayList<>();
+      for (CSLItemData itemData : data.subList(i, Math.min(i + Entry.RENDER_CHUNK_SIZE, data.size()))) {
+        if (!ID_REGEX.matcher(itemData.getId()).matches()) {
+          addError(Error.INVALID_ID_FORMAT, itemData.getId());
+          results.add(null);
+          continue;
+        }
+        counter++;
+        Entry entry = getDocumentWalker().getNode(documentReferenceResolver
+            .resolve(Entry.NAME_PREFIX + counter + Entry.NAME_SUFFIX, getContext().getWikiReference())).wrapAsEntry();
+        entry.fillFromCSLObject(authorReference, itemData);
+        entries.add(entry);
+        results.add(entry.getNode().getDocumentReference());
+      }
+      Entry.update(entries);
+      for (Entry entry : entries) {
+        entry.save();
+      }
+    }
+    return results;
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -180,6 +309,20 @@ public class DefaultBookToolsService implements BookToolsService {
     return person.getNode().getDocumentReference();
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.projectsforge.xwiki.booktools.service.BookToolsService#
+   * createDocumentWalker()
+   */
+  @Override
+  public DocumentWalker createDocumentWalker() {
+    DocumentWalker walker = new DocumentWalker(this, documentReferenceResolver, queryManager, authorizationManager,
+        nodeCache, indexRegistry);
+    walker.setSpaceRightsShortcut(configuration.getProperty(CONFIGURATION_SPACE_RIGHTS_SHORTCUT, Boolean.TRUE));
+    return walker;
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -206,6 +349,27 @@ public class DefaultBookToolsService implements BookToolsService {
 
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.projectsforge.xwiki.booktools.service.BookToolsService#
+   * findCSLItemDatas(org.projectsforge.xwiki.booktools.mapping.Index,
+   * java.util.Collection)
+   */
+  @Override
+  public Map<String, CSLItemData> findCSLItemDatas(Index index, Collection<String> keys) {
+    Map<String, DocumentReference> references = findEntryReferences(index, keys);
+    Map<DocumentReference, CachedEntry> entries = entryCache.getAll(references.values());
+    Map<String, CSLItemData> results = new HashMap<>();
+    for (Map.Entry<String, DocumentReference> reference : references.entrySet()) {
+      CachedEntry entry = entries.get(reference.getValue());
+      if (entry != null) {
+        results.put(reference.getKey(), entry.getData());
+      }
+    }
+    return results;
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -245,6 +409,79 @@ public class DefaultBookToolsService implements BookToolsService {
     return reference;
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.projectsforge.xwiki.booktools.service.BookToolsService#
+   * findEntryReferences(org.projectsforge.xwiki.booktools.mapping.Index,
+   * java.util.Collection)
+   */
+  @Override
+  public Map<String, DocumentReference> findEntryReferences(Index index, Collection<String> keys) {
+    Map<String, DocumentReference> results = new HashMap<>();
+
+    // the keys to resolve by trimmed key
+    Map<String, String> pending = new LinkedHashMap<>();
+    for (String key : keys) {
+      pending.put(StringUtils.trim(key), key);
+    }
+
+    List<WikiReference> wikiReferences = new ArrayList<>();
+    wikiReferences.add(index.getNode().getDocumentReference().getWikiReference());
+    for (String wikiName : index.getExtraWikiSources()) {
+      if (StringUtils.isNotBlank(wikiName)) {
+        wikiReferences.add(new WikiReference(wikiName));
+      }
+    }
+
+    for (WikiReference wikiReference : wikiReferences) {
+      if (pending.isEmpty()) {
+        break;
+      }
+      List<String> names = new ArrayList<>(pending.keySet());
+      Map<String, DocumentReference> found = new HashMap<>();
+      try {
+        for (int i = 0; i < names.size(); i += QUERY_CHUNK_SIZE) {
+          List<String> chunk = new ArrayList<>(names.subList(i, Math.min(i + QUERY_CHUNK_SIZE, names.size())));
+          List<Object[]> rows = queryManager.createQuery(ENTRIES_QUERY, Query.XWQL).bindValue("keys", chunk)
+              .setWiki(StringUtils.defaultIfBlank(wikiReference.getName(), null)).execute();
+          for (Object[] row : rows) {
+            String id = (String) row[1];
+            if (found.containsKey(id)) {
+              logger.warn("Multiple bibliographic entry for key {} on wiki {} : {}", id, wikiReference.getName(),
+                  row[0]);
+              continue;
+            }
+            found.put(id, documentReferenceResolver.resolve((String) row[0], wikiReference));
+          }
+        }
+      } catch (QueryException ex) {
+        logger.warn("An error occurred while executing the query", ex);
+        addError(Error.QUERY, ex.getMessage());
+        continue;
+      }
+      logger.debug("findEntryReferences {} ({}) => {}", names, wikiReference, found.keySet());
+      // the database may match the keys ignoring the case : an exact match is
+      // preferred, then a match ignoring the case
+      Map<String, DocumentReference> foundIgnoringCase = new HashMap<>();
+      for (Map.Entry<String, DocumentReference> entry : found.entrySet()) {
+        foundIgnoringCase.putIfAbsent(entry.getKey().toLowerCase(Locale.ROOT), entry.getValue());
+      }
+      for (Iterator<Map.Entry<String, String>> it = pending.entrySet().iterator(); it.hasNext();) {
+        Map.Entry<String, String> entry = it.next();
+        DocumentReference reference = found.get(entry.getKey());
+        if (reference == null) {
+          reference = foundIgnoringCase.get(entry.getKey().toLowerCase(Locale.ROOT));
+        }
+        if (reference != null) {
+          results.put(entry.getValue(), reference);
+          it.remove();
+        }
+      }
+    }
+    return results;
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -330,31 +567,191 @@ public class DefaultBookToolsService implements BookToolsService {
   @Override
   public CSL getCSL(Index index) {
     try {
-      List<CSLItemData> itemDatas = index.getEntries();
+      // the published content of the index (consistent and never blocking)
+      List<CSLItemData> itemDatas = index.getSnapshot().getEntries();
 
-      // build CSL object from CSLItemData with current locale
+      // build CSL object from CSLItemData with current locale (not pooled : the
+      // caller keeps it)
       CSL csl = new CSL(new ListItemDataProvider(itemDatas.toArray(new CSLItemData[0])), index.getBibliographyStyle(),
           getContext().getLocale().toString());
+      prepareCSL(csl, itemDatas);
+      return csl;
+    } catch (IOException ex) {
+      addError(Error.CSL, ex.getMessage());
+      logger.warn("Can not create CSL instance", ex);
+    }
+    return null;
+  }
+
+  /**
+   * Borrow a CSL engine from the engine pool, loaded with the entries of an
+   * index snapshot. The engine must be closed once used.
+   *
+   * @param snapshot
+   *          the index snapshot
+   * @param style
+   *          the style
+   * @param locale
+   *          the locale
+   * @return the CSL engine
+   * @throws IOException
+   *           Signals that the engine can not be created.
+   */
+  private PooledCSL borrowCSL(IndexSnapshot snapshot, String style, String locale) throws IOException {
+    List<CSLItemData> itemDatas = snapshot.getEntries();
+
+    // get an engine for the style with current locale
+    PooledCSL engine = cslEnginePool.borrow(style, locale, itemDatas);
+    prepareCSL(engine.getCSL(), itemDatas);
+    return engine;
+  }
+
+  /**
+   * Prepare a CSL engine for the rendering of the entries of an index.
+   *
+   * @param csl
+   *          the CSL engine
+   * @param itemDatas
+   *          the entries of the index
+   */
+  private void prepareCSL(CSL csl, List<CSLItemData> itemDatas) {
+    // build the list of all keys in order and register their usage
+    List<String> keys = new ArrayList<>();
+    itemDatas.forEach(e -> keys.add(e.getId()));
+    csl.registerCitationItems(keys.toArray(new String[0]), false);
+
+    // build the citation in order to produce a proper numbering including all
+    // keys
+    for (String key : keys) {
+      csl.makeCitation(new CSLCitation(new CSLCitationItem(key)));
+    }
 
-      // build the list of all keys in order and register their usage
-      List<String> keys = new ArrayList<>();
-      itemDatas.forEach(e -> keys.add(e.getId()));
-      csl.registerCitationItems(keys.toArray(new String[0]), false);
+    csl.setConvertLinks(true);
+    csl.setOutputFormat("text");
+  }
 
-      // build the citation in order to produce a proper numbering including all
-      // keys
-      for (String key : keys) {
-        csl.makeCitation(new CSLCitation(new CSLCitationItem(key)));
+  /**
+   * Make a citation.
+   *
+   * @param csl
+   *          the CSL engine
+   * @param citation
+   *          the keys and locators of the citation
+   * @return the texts of the citation or null if it can not be made
+   */
+  private List<String> makeCitation(CSL csl, List<CiteKey> citation) {
+    List<CSLCitationItem> citationItems = new ArrayList<>();
+    for (CiteKey citeKey : citation) {
+      citationItems.add(new CSLCitationItem(citeKey.getKey(), null, null, null, citeKey.getLocator(), null, null, null,
+          null, null, null, null, null));
+    }
+    try {
+      List<String> texts = new ArrayList<>();
+      for (Citation result : csl.makeCitation(new CSLCitation(citationItems.toArray(new CSLCitationItem[0])))) {
+        texts.add(result.getText());
       }
+      return texts;
+    } catch (IllegalArgumentException ex) {
+      logger.warn("Could not make citations for " + citation, ex);
+      return null;
+    }
+  }
 
-      csl.setConvertLinks(true);
-      csl.setOutputFormat("text");
-      return csl;
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.projectsforge.xwiki.booktools.service.BookToolsService#
+   * getBibliography(org.projectsforge.xwiki.booktools.mapping.Index)
+   */
+  @Override
+  public RenderedBibliography getBibliography(Index index) {
+    IndexSnapshot snapshot = index.getSnapshot();
+    String style = index.getBibliographyStyle();
+    String locale = getContext().getLocale().toString();
+    RenderedBibliography bibliography = bibliographyCache.get(snapshot, style, locale);
+    if (bibliography == null) {
+      try (PooledCSL engine = borrowCSL(snapshot, style, locale)) {
+        bibliography = new RenderedBibliography(engine.getCSL().makeBibliography());
+        bibliographyCache.put(snapshot, style, locale, bibliography);
+      } catch (IOException ex) {
+        addError(Error.CSL, ex.getMessage());
+        logger.warn("Can not create CSL instance", ex);
+      }
+    }
+    return bibliography;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.service.BookToolsService#getCitations(org.
+   * projectsforge.xwiki.booktools.mapping.Index, java.util.List)
+   */
+  @Override
+  public List<List<String>> getCitations(Index index, List<List<CiteKey>> citations) {
+    IndexSnapshot snapshot = index.getSnapshot();
+    String style = index.getBibliographyStyle();
+    String locale = getContext().getLocale().toString();
+
+    List<List<String>> results = new ArrayList<>();
+    // the engine is borrowed only if a citation is not cached
+    PooledCSL engine = null;
+    try {
+      for (List<CiteKey> citation : citations) {
+        // the normalized keys and locators
+        StringJoiner normalized = new StringJoiner("\n");
+        for (CiteKey citeKey : citation) {
+          normalized.add(citeKey.getKey() + '\t' + citeKey.getLocator());
+        }
+        List<String> texts = citationCache.get(snapshot, style, locale, normalized.toString());
+        if (texts == null) {
+          if (engine == null) {
+            engine = borrowCSL(snapshot, style, locale);
+          }
+          texts = makeCitation(engine.getCSL(), citation);
+          if (texts == null) {
+            texts = Collections.emptyList();
+          } else {
+            citationCache.put(snapshot, style, locale, normalized.toString(), texts);
+          }
+        }
+        results.add(texts);
+      }
     } catch (IOException ex) {
       addError(Error.CSL, ex.getMessage());
       logger.warn("Can not create CSL instance", ex);
+      while (results.size() < citations.size()) {
+        results.add(Collections.emptyList());
+      }
+    } finally {
+      if (engine != null) {
+        engine.close();
+      }
     }
-    return null;
+    return results;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.service.BookToolsService#getCSLEnginePool()
+   */
+  @Override
+  public CSLEnginePool getCSLEnginePool() {
+    return cslEnginePool;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.projectsforge.xwiki.booktools.service.BookToolsService#
+   * getCSLEngineStatistics()
+   */
+  @Override
+  public Map<String, Long> getCSLEngineStatistics() {
+    return cslEnginePool.getStatistics();
   }
 
   /*
@@ -381,36 +778,30 @@ public class DefaultBookToolsService implements BookToolsService {
     Map<String, List<DocumentReference>> results = new HashMap<>();
     try {
       for (String wikiId : wikiDescriptorManager.getAllIds()) {
-        WikiReference wikiReference = new WikiReference(wikiId);
-        List<DocumentReference> referencing = new ArrayList<>();
-
-        List<String> docs = queryManager
-            .createQuery(String.format("from doc.object(%s) as localindex", LocalIndex.CLASS_REFERENCE_AS_STRING),
-                Query.XWQL)
-            .setWiki(wikiId).execute();
-        if (docs == null) {
-          docs = Collections.emptyList();
-        }
-
-        DocumentWalker documentWalker = getDocumentWalker();
-
-        for (String docId : docs) {
-          DocumentReference docRef = documentReferenceResolver.resolve(docId, wikiReference);
-          List<String> keys = documentWalker.getNode(docRef).wrapAsLocalIndex(null).getKeys();
-          if (keys.contains(entryId) && !referencing.contains(docRef)) {
-            referencing.add(docRef);
-          }
-        }
+        List<DocumentReference> referencing = getDocumentReferencingEntry(new WikiReference(wikiId), entryId, 0, -1);
         if (!referencing.isEmpty()) {
           results.put(wikiId, referencing);
         }
       }
-    } catch (WikiManagerException | QueryException ex) {
+    } catch (WikiManagerException ex) {
       logger.warn("An error occurred", ex);
     }
     return results;
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.projectsforge.xwiki.booktools.service.BookToolsService#
+   * getDocumentReferencingEntry(org.xwiki.model.reference.WikiReference,
+   * java.lang.String, int, int)
+   */
+  @Override
+  public List<DocumentReference> getDocumentReferencingEntry(WikiReference wikiReference, String entryId, int offset,
+      int limit) {
+    return citationRegistry.getCitingPages(wikiReference, entryId, offset, limit);
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -422,11 +813,46 @@ public class DefaultBookToolsService implements BookToolsService {
     XWikiContext context = getContext();
     DocumentWalker result = (DocumentWalker) context.get(DOCUMENT_WALKER);
     if (result == null) {
-      result = new DocumentWalker(this, documentReferenceResolver, queryManager, authorizationManager);
+      // the walker is request-scoped : it is kept in the context
+      result = createDocumentWalker();
+      context.put(DOCUMENT_WALKER, result);
     }
     return result;
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.service.BookToolsService#getEntryCache()
+   */
+  @Override
+  public EntryCache getEntryCache() {
+    return entryCache;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.projectsforge.xwiki.booktools.service.BookToolsService#
+   * getIndexSnapshotCache()
+   */
+  @Override
+  public IndexSnapshotCache getIndexSnapshotCache() {
+    return indexSnapshotCache;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.service.BookToolsService#getStyleRegistry()
+   */
+  @Override
+  public StyleRegistry getStyleRegistry() {
+    return styleRegistry;
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -492,6 +918,39 @@ public class DefaultBookToolsService implements BookToolsService {
     return list;
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.projectsforge.xwiki.booktools.service.BookToolsService#
+   * getIndexLockStatistics()
+   */
+  @Override
+  public Map<String, Long> getIndexLockStatistics() {
+    return IndexLocks.getStatistics();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.projectsforge.xwiki.booktools.service.BookToolsService#
+   * getIndexRebuildQueueDepth()
+   */
+  @Override
+  public int getIndexRebuildQueueDepth() {
+    return indexRebuildQueue.getQueueDepth();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.projectsforge.xwiki.booktools.service.BookToolsService#
+   * getLastIndexRebuildLatency()
+   */
+  @Override
+  public long getLastIndexRebuildLatency() {
+    return indexRebuildQueue.getLastRebuildLatency();
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -551,6 +1010,16 @@ public class DefaultBookToolsService implements BookToolsService {
    */
   @Override
   public DocumentReference getNewEntryReference() {
+    return documentReferenceResolver.resolve(Entry.NAME_PREFIX + (getLastEntryNumber() + 1) + Entry.NAME_SUFFIX,
+        getContext().getWikiReference());
+  }
+
+  /**
+   * Gets the greatest number of the entries of the current wiki.
+   *
+   * @return the greatest entry number (0 if there is none)
+   */
+  private int getLastEntryNumber() {
     XWikiContext context = getContext();
     List<String> results = null;
     try {
@@ -576,9 +1045,7 @@ public class DefaultBookToolsService implements BookToolsService {
         }
       }
     }
-    counter++;
-    return documentReferenceResolver.resolve(Entry.NAME_PREFIX + counter + Entry.NAME_SUFFIX,
-        context.getWikiReference());
+    return counter;
   }
 
   /*
@@ -698,6 +1165,33 @@ public class DefaultBookToolsService implements BookToolsService {
     }
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.projectsforge.xwiki.booktools.service.BookToolsService#moveSubtrees(org
+   * .xwiki.model.reference.DocumentReference, java.util.List, boolean)
+   */
+  @Override
+  public Job moveSubtrees(DocumentReference parentReference, List<DocumentReference> childrenReferences,
+      boolean reorder) {
+    MoveSubtreeJobRequest request = new MoveSubtreeJobRequest();
+    request.setId(Arrays.asList(MoveSubtreeJob.JOB_TYPE, UUID.randomUUID().toString()));
+    request.setInteractive(false);
+    request.setVerbose(true);
+    request.setParentReference(parentReference);
+    request.setChildrenReferences(new ArrayList<>(childrenReferences));
+    request.setReorder(reorder);
+    request.setUserReference(getContext().getUserReference());
+
+    try {
+      return jobExecutor.execute(MoveSubtreeJob.JOB_TYPE, request);
+    } catch (JobException ex) {
+      logger.warn("An error occurred while starting the move of " + childrenReferences, ex);
+      return null;
+    }
+  }
+
   /*
    * (non-Javadoc)
    *
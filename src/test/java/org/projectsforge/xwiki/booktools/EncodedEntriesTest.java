@@ -0,0 +1,97 @@
+package org.projectsforge.xwiki.booktools;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.xwiki.model.reference.DocumentReference;
+
+import de.undercouch.citeproc.csl.CSLItemData;
+import de.undercouch.citeproc.csl.CSLItemDataBuilder;
+
+/**
+ * The tests of the encoding of the entries and keys stored in the indexes.
+ */
+public class EncodedEntriesTest {
+
+  /**
+   * The entries (keys, references and versions) survive an encoding.
+   */
+  @Test
+  public void testEntriesRoundTrip() {
+    List<String> keys = Arrays.asList("knuth84", "lamport94", "\u00e9t\u00e9");
+    List<DocumentReference> references = Arrays.asList(new DocumentReference("xwiki", "Biblio", "Knuth84"),
+        new DocumentReference("xwiki", Arrays.asList("Biblio", "Sub"), "Lamport94"),
+        new DocumentReference("other", "Biblio", "Ete"));
+    List<String> versions = Arrays.asList("1.1", "2.3", "10.1");
+
+    String value = EncodedEntries.encode(keys, references, versions);
+    assertTrue(value.startsWith(EncodedEntries.ENTRIES_HEADER));
+
+    EncodedEntries entries = EncodedEntries.decode(null, value);
+    assertTrue(entries.hasReferences());
+    assertEquals(3, entries.size());
+    assertEquals(keys, entries.getKeys());
+    for (int i = 0; i < keys.size(); ++i) {
+      assertTrue(entries.contains(keys.get(i)));
+      assertEquals(references.get(i), entries.getReference(keys.get(i)));
+      assertEquals(versions.get(i), entries.getVersion(keys.get(i)));
+    }
+    assertFalse(entries.contains("unknown"));
+  }
+
+  /**
+   * No entry is encoded as an empty value.
+   */
+  @Test
+  public void testEmpty() {
+    assertEquals("", EncodedEntries.encode(Collections.emptyList(), Collections.emptyList(),
+        Collections.emptyList()));
+    assertEquals(0, EncodedEntries.decode(null, "").size());
+    assertEquals("", EncodedEntries.encodeKeys(Collections.emptyList()));
+  }
+
+  /**
+   * The keys survive an encoding.
+   */
+  @Test
+  public void testKeysRoundTrip() {
+    List<String> keys = Arrays.asList("knuth84", "lamport94", "knuth84", "\u00e9t\u00e9");
+    String value = EncodedEntries.encodeKeys(keys);
+    assertTrue(value.startsWith(EncodedEntries.KEYS_HEADER));
+    assertEquals(keys, EncodedEntries.decodeKeys(null, value));
+  }
+
+  /**
+   * The entries stored with the legacy JSON encoding are still read.
+   */
+  @Test
+  public void testLegacyEntries() {
+    List<CSLItemData> datas = Arrays.asList(
+        new CSLItemDataBuilder().id("knuth84").title("Literate Programming").build(),
+        new CSLItemDataBuilder().id("lamport94").title("LaTeX").build());
+
+    EncodedEntries entries = EncodedEntries.decode(null, Utils.serializedCSLItemDatas(datas));
+    assertFalse(entries.hasReferences());
+    assertEquals(Arrays.asList("knuth84", "lamport94"), entries.getKeys());
+    assertEquals("Literate Programming", entries.get("knuth84").getTitle());
+    assertEquals("LaTeX", entries.get("lamport94").getTitle());
+    assertNull(entries.getReference("knuth84"));
+  }
+
+  /**
+   * The keys stored with the legacy JSON encoding are still read.
+   */
+  @Test
+  public void testLegacyKeys() {
+    assertEquals(Arrays.asList("knuth84", "lamport94"),
+        EncodedEntries.decodeKeys(null, "[\"knuth84\",\"lamport94\"]"));
+  }
+
+}
@@ -0,0 +1,27 @@
+package org.projectsforge.xwiki.booktools.cache;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * The tests of the version checks of the entry cache.
+ */
+public class DefaultEntryCacheTest {
+
+  /**
+   * A cached entry at least as recent as the requested version is accepted.
+   */
+  @Test
+  public void testIsOlder() {
+    assertFalse(DefaultEntryCache.isOlder("1.2", null));
+    assertFalse(DefaultEntryCache.isOlder("1.2", "1.2"));
+    assertFalse(DefaultEntryCache.isOlder("1.10", "1.9"));
+    assertFalse(DefaultEntryCache.isOlder("2.1", "1.9"));
+    assertTrue(DefaultEntryCache.isOlder("1.9", "1.10"));
+    assertTrue(DefaultEntryCache.isOlder(null, "1.1"));
+    assertTrue(DefaultEntryCache.isOlder("unknown", "1.1"));
+  }
+
+}
@@ -0,0 +1,103 @@
+package org.projectsforge.xwiki.booktools.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * The tests of the shared node cache and of its invalidation.
+ */
+public class DefaultNodeCacheTest {
+
+  /** The chapter. */
+  private static final DocumentReference CHAPTER = new DocumentReference("xwiki", Arrays.asList("Book", "Ch1"),
+      "WebHome");
+
+  /** The introduction. */
+  private static final DocumentReference INTRO = new DocumentReference("xwiki", "Book", "Intro");
+
+  /** The root of the book. */
+  private static final DocumentReference ROOT = new DocumentReference("xwiki", "Book", "WebHome");
+
+  /** The section of the chapter. */
+  private static final DocumentReference SECTION = new DocumentReference("xwiki", Arrays.asList("Book", "Ch1"),
+      "Sec1");
+
+  /** The cache. */
+  private NodeCache cache;
+
+  /**
+   * Fill the cache.
+   */
+  @Before
+  public void setUp() {
+    cache = new DefaultNodeCache();
+    cache.setChildren(ROOT, false, Arrays.asList(INTRO, CHAPTER));
+    cache.setChildren(ROOT, true, Arrays.asList(INTRO, CHAPTER));
+    cache.setChildren(CHAPTER, false, Arrays.asList(SECTION));
+    cache.setOrder(INTRO, 1);
+    cache.setOrder(CHAPTER, 2);
+    cache.setOrder(SECTION, 0);
+    cache.setIndex(ROOT, true);
+  }
+
+  /**
+   * The cached values are returned until the cache is cleared.
+   */
+  @Test
+  public void testClear() {
+    assertEquals(Arrays.asList(INTRO, CHAPTER), cache.getChildren(ROOT, false));
+    assertEquals(Integer.valueOf(2), cache.getOrder(CHAPTER));
+    assertEquals(Boolean.TRUE, cache.isIndex(ROOT));
+    assertNull(cache.getChildren(CHAPTER, true));
+
+    cache.clear();
+    assertNull(cache.getChildren(ROOT, false));
+    assertNull(cache.getOrder(CHAPTER));
+    assertNull(cache.isIndex(ROOT));
+  }
+
+  /**
+   * The invalidation of a document drops the document and its parent (which
+   * lists it as a child) only.
+   */
+  @Test
+  public void testInvalidate() {
+    cache.invalidate(SECTION);
+    assertNull(cache.getOrder(SECTION));
+    assertNull(cache.getChildren(CHAPTER, false));
+    assertEquals(Arrays.asList(INTRO, CHAPTER), cache.getChildren(ROOT, false));
+    assertEquals(Integer.valueOf(1), cache.getOrder(INTRO));
+
+    cache.invalidate(CHAPTER);
+    assertNull(cache.getOrder(CHAPTER));
+    assertNull(cache.getChildren(ROOT, true));
+    assertNull(cache.isIndex(ROOT));
+  }
+
+  /**
+   * The invalidation of the hierarchy of a document drops all its ancestors.
+   */
+  @Test
+  public void testInvalidateHierarchy() {
+    cache.invalidateHierarchy(SECTION);
+    assertNull(cache.getOrder(SECTION));
+    assertNull(cache.getChildren(CHAPTER, false));
+    assertNull(cache.getChildren(ROOT, false));
+    assertEquals(Integer.valueOf(1), cache.getOrder(INTRO));
+  }
+
+  /**
+   * The cached children can not be modified.
+   */
+  @Test(expected = UnsupportedOperationException.class)
+  public void testUnmodifiableChildren() {
+    cache.getChildren(ROOT, false).add(SECTION);
+  }
+
+}
@@ -0,0 +1,39 @@
+package org.projectsforge.xwiki.booktools.mapping;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * The tests of the static helpers of the document walker.
+ */
+public class DocumentWalkerTest {
+
+  /**
+   * The wildcards and the escape character of a space name are escaped.
+   */
+  @Test
+  public void testEscapeLike() {
+    assertEquals("Book", DocumentWalker.escapeLike("Book"));
+    assertEquals("my!_book!%!!", DocumentWalker.escapeLike("my_book%!"));
+  }
+
+  /**
+   * The parent of a page is the WebHome of its space, the parent of a space is
+   * the WebHome of the parent space.
+   */
+  @Test
+  public void testGetParentReference() {
+    DocumentReference root = new DocumentReference("xwiki", "Book", "WebHome");
+    DocumentReference chapter = new DocumentReference("xwiki", Arrays.asList("Book", "Ch1"), "WebHome");
+    assertEquals(chapter,
+        DocumentWalker.getParentReference(new DocumentReference("xwiki", Arrays.asList("Book", "Ch1"), "Sec1")));
+    assertEquals(root, DocumentWalker.getParentReference(chapter));
+    assertNull(DocumentWalker.getParentReference(root));
+  }
+
+}
@@ -0,0 +1,155 @@
+package org.projectsforge.xwiki.booktools.mapping;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.projectsforge.xwiki.booktools.cache.DefaultNodeCache;
+import org.projectsforge.xwiki.booktools.cache.NodeCache;
+import org.projectsforge.xwiki.booktools.mapping.SubtreeMove.Step;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * The tests of the planning and the validation of the subtree moves. The
+ * children are served by the node cache so that no query is executed.
+ */
+public class SubtreeMoveTest {
+
+  /** The chapter. */
+  private static final DocumentReference CHAPTER = new DocumentReference("xwiki", Arrays.asList("Book", "Ch1"),
+      "WebHome");
+
+  /** The hidden page of the chapter. */
+  private static final DocumentReference HIDDEN = new DocumentReference("xwiki", Arrays.asList("Book", "Ch1"),
+      "Hidden");
+
+  /** The introduction. */
+  private static final DocumentReference INTRO = new DocumentReference("xwiki", "Book", "Intro");
+
+  /** The root of the book. */
+  private static final DocumentReference ROOT = new DocumentReference("xwiki", "Book", "WebHome");
+
+  /** The section of the chapter. */
+  private static final DocumentReference SECTION = new DocumentReference("xwiki", Arrays.asList("Book", "Ch1"),
+      "Sec1");
+
+  /** The target space. */
+  private static final DocumentReference TARGET = new DocumentReference("xwiki", "Target", "WebHome");
+
+  /** The walker. */
+  private DocumentWalker walker;
+
+  /**
+   * Check a step.
+   *
+   * @param step
+   *          the step
+   * @param source
+   *          the expected source
+   * @param target
+   *          the expected target
+   * @param parent
+   *          the expected parent
+   * @param order
+   *          the expected order
+   */
+  private void assertStep(Step step, DocumentReference source, DocumentReference target, DocumentReference parent,
+      Integer order) {
+    assertEquals(source, step.getSource());
+    assertEquals(target, step.getTarget());
+    assertEquals(parent, step.getParent());
+    assertEquals(order, step.getOrder());
+  }
+
+  /**
+   * Build the tree.
+   */
+  @Before
+  public void setUp() {
+    NodeCache nodeCache = new DefaultNodeCache();
+    nodeCache.setChildren(ROOT, false, Arrays.asList(INTRO, CHAPTER));
+    nodeCache.setChildren(ROOT, true, Arrays.asList(INTRO, CHAPTER));
+    nodeCache.setChildren(CHAPTER, false, Arrays.asList(SECTION));
+    nodeCache.setChildren(CHAPTER, true, Arrays.asList(SECTION, HIDDEN));
+    nodeCache.setChildren(TARGET, false, new ArrayList<>());
+    nodeCache.setChildren(TARGET, true, new ArrayList<>());
+    walker = new DocumentWalker(null, null, null, null, nodeCache, null);
+  }
+
+  /**
+   * The subtrees are moved in pre-order with their hidden pages and only the
+   * moved pages are reordered.
+   */
+  @Test
+  public void testPlan() {
+    SubtreeMove move = new SubtreeMove(walker.getNode(TARGET),
+        Arrays.asList(walker.getNode(CHAPTER), walker.getNode(INTRO)), true);
+    assertTrue(move.isValid());
+
+    DocumentReference movedChapter = new DocumentReference("xwiki", Arrays.asList("Target", "Ch1"), "WebHome");
+    List<Step> steps = move.getSteps();
+    assertEquals(4, steps.size());
+    assertStep(steps.get(0), CHAPTER, movedChapter, TARGET, 0);
+    assertStep(steps.get(1), SECTION, new DocumentReference("xwiki", Arrays.asList("Target", "Ch1"), "Sec1"),
+        movedChapter, null);
+    assertStep(steps.get(2), HIDDEN, new DocumentReference("xwiki", Arrays.asList("Target", "Ch1"), "Hidden"),
+        movedChapter, null);
+    assertStep(steps.get(3), INTRO, new DocumentReference("xwiki", "Target", "Intro"), TARGET, 1);
+  }
+
+  /**
+   * The children of the new parent are only reordered.
+   */
+  @Test
+  public void testReorder() {
+    SubtreeMove move = new SubtreeMove(walker.getNode(ROOT),
+        Arrays.asList(walker.getNode(CHAPTER), walker.getNode(INTRO)), true);
+    assertTrue(move.isValid());
+
+    List<Step> steps = move.getSteps();
+    assertEquals(2, steps.size());
+    assertStep(steps.get(0), CHAPTER, CHAPTER, ROOT, 0);
+    assertFalse(steps.get(0).isRename());
+    assertStep(steps.get(1), INTRO, INTRO, ROOT, 1);
+  }
+
+  /**
+   * A page can not be moved in its own subtree and nothing is moved.
+   */
+  @Test
+  public void testMoveInOwnSubtree() {
+    SubtreeMove move = new SubtreeMove(walker.getNode(CHAPTER), Arrays.asList(walker.getNode(ROOT)), false);
+    assertFalse(move.isValid());
+    assertFalse(move.execute(null, null));
+  }
+
+  /**
+   * A page can only be moved under a space.
+   */
+  @Test
+  public void testParentNotSpace() {
+    SubtreeMove move = new SubtreeMove(walker.getNode(INTRO), Arrays.asList(walker.getNode(CHAPTER)), false);
+    assertFalse(move.isValid());
+    assertTrue(move.getSteps().isEmpty());
+    assertFalse(move.execute(null, null));
+  }
+
+  /**
+   * The target references of the moved pages.
+   */
+  @Test
+  public void testTargetReference() {
+    assertEquals(new DocumentReference("xwiki", Arrays.asList("Target", "Ch1"), "WebHome"),
+        SubtreeMove.getTargetReference(TARGET, CHAPTER));
+    assertEquals(new DocumentReference("xwiki", "Target", "Intro"), SubtreeMove.getTargetReference(TARGET, INTRO));
+    assertNull(DocumentWalker.getParentReference(ROOT));
+  }
+
+}
@@ -0,0 +1,135 @@
+package org.projectsforge.xwiki.booktools.mapping;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.projectsforge.xwiki.booktools.cache.DefaultNodeCache;
+import org.projectsforge.xwiki.booktools.cache.NodeCache;
+import org.projectsforge.xwiki.booktools.mapping.DocumentWalker.Node;
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * The tests of the order of the tree traversals. The children are served by
+ * the node cache so that no query is executed.
+ */
+public class TreeTraversalTest {
+
+  /** The chapter 1. */
+  private static final DocumentReference CHAPTER1 = new DocumentReference("xwiki", Arrays.asList("Book", "Ch1"),
+      "WebHome");
+
+  /** The chapter 2. */
+  private static final DocumentReference CHAPTER2 = new DocumentReference("xwiki", Arrays.asList("Book", "Ch2"),
+      "WebHome");
+
+  /** The hidden page of the chapter 1. */
+  private static final DocumentReference HIDDEN = new DocumentReference("xwiki", Arrays.asList("Book", "Ch1"),
+      "Hidden");
+
+  /** The introduction. */
+  private static final DocumentReference INTRO = new DocumentReference("xwiki", "Book", "Intro");
+
+  /** The root of the book. */
+  private static final DocumentReference ROOT = new DocumentReference("xwiki", "Book", "WebHome");
+
+  /** The section 1 of the chapter 1. */
+  private static final DocumentReference SECTION1 = new DocumentReference("xwiki", Arrays.asList("Book", "Ch1"),
+      "Sec1");
+
+  /** The section 2 of the chapter 1. */
+  private static final DocumentReference SECTION2 = new DocumentReference("xwiki", Arrays.asList("Book", "Ch1"),
+      "Sec2");
+
+  /**
+   * Convert nodes to their references.
+   *
+   * @param nodes
+   *          the nodes
+   * @return the references
+   */
+  private static List<DocumentReference> toReferences(List<Node> nodes) {
+    return nodes.stream().map(Node::getDocumentReference).collect(Collectors.toList());
+  }
+
+  /** The root node. */
+  private Node root;
+
+  /**
+   * Build the tree.
+   */
+  @Before
+  public void setUp() {
+    NodeCache nodeCache = new DefaultNodeCache();
+    nodeCache.setChildren(ROOT, false, Arrays.asList(INTRO, CHAPTER1, CHAPTER2));
+    nodeCache.setChildren(ROOT, true, Arrays.asList(INTRO, CHAPTER1, CHAPTER2));
+    nodeCache.setChildren(CHAPTER1, false, Arrays.asList(SECTION1, SECTION2));
+    nodeCache.setChildren(CHAPTER1, true, Arrays.asList(SECTION1, SECTION2, HIDDEN));
+    nodeCache.setChildren(CHAPTER2, false, new ArrayList<>());
+    nodeCache.setChildren(CHAPTER2, true, new ArrayList<>());
+    root = new DocumentWalker(null, null, null, null, nodeCache, null).getNode(ROOT);
+  }
+
+  /**
+   * The hidden pages are only visited on demand.
+   */
+  @Test
+  public void testIncludeHidden() {
+    assertEquals(Arrays.asList(ROOT, INTRO, CHAPTER1, SECTION1, SECTION2, HIDDEN, CHAPTER2),
+        toReferences(root.traverse().includeHidden(true).toList()));
+  }
+
+  /**
+   * The traversal stops at the maximum depth.
+   */
+  @Test
+  public void testMaxDepth() {
+    assertEquals(Arrays.asList(ROOT), toReferences(root.traverse().maxDepth(0).toList()));
+    assertEquals(Arrays.asList(ROOT, INTRO, CHAPTER1, CHAPTER2), toReferences(root.traverse().maxDepth(1).toList()));
+  }
+
+  /**
+   * A parallel traversal keeps the pre-order.
+   */
+  @Test
+  public void testParallelStream() {
+    assertEquals(Arrays.asList(ROOT, INTRO, CHAPTER1, SECTION1, SECTION2, CHAPTER2),
+        toReferences(root.traverse().parallelStream().collect(Collectors.toList())));
+  }
+
+  /**
+   * The traversal is a pre-order and can be consumed several times.
+   */
+  @Test
+  public void testPreOrder() {
+    TreeTraversal traversal = root.traverse();
+    List<DocumentReference> expected = Arrays.asList(ROOT, INTRO, CHAPTER1, SECTION1, SECTION2, CHAPTER2);
+    assertEquals(expected, toReferences(traversal.toList()));
+    assertEquals(expected, toReferences(traversal.stream().collect(Collectors.toList())));
+  }
+
+  /**
+   * A pruned node is skipped with its subtree.
+   */
+  @Test
+  public void testPrune() {
+    assertEquals(Arrays.asList(ROOT, INTRO, CHAPTER2),
+        toReferences(root.traverse().prune(node -> CHAPTER1.equals(node.getDocumentReference())).toList()));
+  }
+
+  /**
+   * The visit reports the depth of the nodes.
+   */
+  @Test
+  public void testVisitDepths() {
+    List<Integer> depths = new ArrayList<>();
+    root.traverse().visit((node, depth) -> depths.add(depth));
+    assertEquals(Arrays.asList(0, 1, 1, 2, 2, 1), depths);
+  }
+
+}